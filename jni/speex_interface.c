@@ -4,32 +4,67 @@ The interface to speex needs to be defined
 The following native functions need to be defined:
 
 
-	private static native void setPreprocessorEnable(boolean paramBoolean);
+	// The encoder functions take the id returned by createEncoder, like the
+	// decoder functions do. Every id has its own SpeexBits, preprocessor state and
+	// settings, so no global state and no global lock is needed.
+	private static native void setPreprocessorEnable(int paramInt, boolean paramBoolean);
 
-	private native boolean createEncoder();
+	// Returns the id of a new encoder, -1 if it could not be created. The
+	// encoder uses speex_wb_mode when paramBoolean is true, speex_nb_mode otherwise.
+	private native int createEncoder(boolean paramBoolean);
 
-	private native void destroyEncoder();
+	private native void destroyEncoder(int paramInt);
 
-	private native int encode(short[] paramArrayOfShort, byte[] paramArrayOfByte, int paramInt);
+	// Encodes a frame starting at paramInt2 into paramArrayOfByte, starting at paramInt3,
+	// writing at most paramInt4 bytes. Returns the number of bytes written.
+	private native int encode(int paramInt1, short[] paramArrayOfShort, int paramInt2,
+			byte[] paramArrayOfByte, int paramInt3, int paramInt4);
 
-	private static native int getEncoderComplexity();
+	private static native int getEncoderComplexity(int paramInt);
 
-	private native int getEncoderFrameSize();
+	private native int getEncoderFrameSize(int paramInt);
 
-	private static native void setEncoderComplexity(int paramInt);
+	private static native void setEncoderComplexity(int paramInt1, int paramInt2);
 
-	private static native void setEncoderDenoise(boolean paramBoolean);
+	private static native void setEncoderDenoise(int paramInt, boolean paramBoolean);
 
-	private static native void setEncoderQuality(int paramInt);
+	private static native void setEncoderQuality(int paramInt1, int paramInt2);
 
-	private static native void setEncoderVAD(boolean paramBoolean);
+	private static native void setEncoderVAD(int paramInt, boolean paramBoolean);
 
 
-	private native int createDecoder();
+	// Same as createEncoder: speex_wb_mode when paramBoolean is true
+	private native int createDecoder(boolean paramBoolean);
 
-	private native boolean decode(int paramInt1, byte[] paramArrayOfByte, int paramInt2, short[] paramArrayOfShort);
+	// Decodes paramInt3 bytes starting at paramInt2 into paramArrayOfShort, starting at paramInt4.
+	// Use GetPrimitiveArrayCritical/Get*ArrayRegion so no Java array is allocated.
+	// A null paramArrayOfByte means the frame was lost: call speex_decode_int with a
+	// NULL bits pointer, so that speex conceals the loss.
+	private native boolean decode(int paramInt1, byte[] paramArrayOfByte, int paramInt2, int paramInt3,
+			short[] paramArrayOfShort, int paramInt4);
 
 	private native void destroyDecoder(int paramInt);
 
 	private native int getDecoderFrameSize(int paramInt);
+
+The following native functions are used by DirectSpeexCodec. The handle is
+a pointer to a structure holding the speex state and its SpeexBits. The
+buffers are direct: use GetDirectBufferAddress and add the offsets to it.
+The samples are 16 bit, in the native byte order.
+
+	// speex_wb_mode when wideband is true, speex_nb_mode otherwise
+	private static native long create(boolean encoder, boolean wideband);
+
+	private static native int getFrameSize(long handle);
+
+	private static native int encode(long handle, ByteBuffer pcm, int pcmOffset, ByteBuffer out,
+			int outOffset, int maxBytes);
+
+	// A null data buffer means the frame was lost (see decode above)
+	private static native boolean decode(long handle, ByteBuffer data, int offset, int nr,
+			ByteBuffer pcm, int pcmOffset);
+
+	private static native void setQuality(long handle, int quality);
+
+	private static native void destroy(long handle);
 */
\ No newline at end of file
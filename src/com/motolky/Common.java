@@ -34,21 +34,53 @@ import android.media.AudioFormat;
  */
 public class Common {
     public static final String TAG = "motolky";
-    public static final int SAMPLE_RATE = 8000;
+    public static final int NARROWBAND_RATE = 8000;
+    public static final int WIDEBAND_RATE = 16000;
+    public static       int SAMPLE_RATE = NARROWBAND_RATE; // set once, before the talk starts
     public static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     @SuppressWarnings("deprecation")
     public static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_CONFIGURATION_MONO;
-    public static final int AUDIO_BUFFER_LEN = 320;
+    public static final int FRAMES_PER_READ = 2;       // codec frames
     public static final int MAX_GROUP_MEMBERS = 7;
+    // A Bluetooth hub links with at most 7 other devices at once
+    public static final int MAX_HUB_GROUP_MEMBERS = 8;
+    public static       boolean HUB_MODE = false;  // set once, before the talk starts
+    public static       boolean RELAY_MODE = false; // the hub forwards instead of mixing
+    public static       int RELAY_TALKERS = 3;     // loudest talkers forwarded
+    public static       int LOCAL_ORIGIN = 0;      // the place of the device in the group
+    public static       boolean MULTI_HOP = false; // the members forward each other's frames
+    public static       int FORWARD_HOPS = 2;      // times a frame may be forwarded
     public static final int DISCOVERABLE_TIMEOUT = 300; // Seconds
-    public static       int RECONNECT_TIMEOUT = 3000;   // miliseconds
     public static final int REQUEST_ENABLE_BT = 1;
     public static final int REQUEST_ENABLE_DISCOVERY = 2;
     public static final int REQUEST_CHANGE_PREFERENCES = 3;
     public static int RECONNECT_MIN_TIMEOUT = 3000;   // miliseconds
     public static int RECONNECT_MAX_TIMEOUT = 10000;  // miliseconds
-    public static final int TIMES_TO_USE_MIN_RECONNECT_TIMEOUT = 100;
+    public static final int TIMES_TO_USE_MIN_RECONNECT_TIMEOUT = 2; // failures before backing off
+    public static       int RECONNECT_STABLE_TIME = 10000; // miliseconds up before the failures are forgotten
+
+    public static final int JITTER_BUFFER_FRAMES = 64;
+    public static final int RECEIVE_RING_FRAMES = JITTER_BUFFER_FRAMES; // a burst fills the jitter buffer
+    public static       int JITTER_MIN_DEPTH = 2;      // frames
+    public static       int JITTER_MAX_DEPTH = 25;     // frames
+    public static       int MAX_CONCEALED_FRAMES = 5;  // consecutive frames
+    public static       int JITTER_SKIP_MARGIN = 6;    // frames above the target depth
+    public static       boolean ENABLE_TIME_SCALING = true;
+
+    public static final int MAX_PACKET_LEN = 1024;     // bytes
+    public static       int FRAMES_PER_PACKET = 2;     // 1 to 4
+    public static       int PACKET_DEADLINE = 60;      // miliseconds
+    public static       int SIMULCAST_LAYERS = 2;      // 1 to 3
+    public static       int LAYER_UPGRADE_DELAY = 5000; // miliseconds
+    public static       int SEND_QUEUE_LEN = 8;        // buffers
+    public static       boolean SEND_DROP_OLDEST = true;
+    public static       int QUALITY_UPGRADE_DELAY = 5000; // miliseconds
+    public static       int FEEDBACK_INTERVAL = 1000;  // miliseconds
+    public static       boolean ENABLE_FEC = false;
+    public static       int FEC_PARITY_GROUP = 4;      // packets, 0 for no parity
+    public static       int FEC_LOSS_THRESHOLD = 8;    // out of 256 (3%)
 
     public static boolean ENABLE_VAD = false;
-    public static final byte SEPARATOR = 127;
+    public static       int VAD_HANGOVER = 10;         // frames
+    public static       int COMFORT_NOISE_INTERVAL = 25; // frames
 }
@@ -32,6 +32,7 @@ import java.util.List;
 import android.content.Context;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -97,15 +98,19 @@ public class GroupDeviceAdapter extends DeviceAdapter {
                          }
 
                      if (picked) {
-                         // Check whether there aren't too many members in the group
+                         // Check whether there aren't too many members in the group.
+                         // In hub mode every member only links with the hub.
+                         int max = PreferenceManager.getDefaultSharedPreferences(mContext).
+                                 getBoolean("Hub Mode", false) ?
+                                 Common.MAX_HUB_GROUP_MEMBERS : Common.MAX_GROUP_MEMBERS;
                          int nr = 0;
                          for (Device device : mItems)
                              if (device.getPicked() && !device.equals(changedDevice))
                                  nr++;
-                         if (nr >= Common.MAX_GROUP_MEMBERS - 1) {
+                         if (nr >= max - 1) {
                              picked = false;
                              mNotifyHandler.showText("A group may contain maximum " +
-                                     Common.MAX_GROUP_MEMBERS + " members");
+                                     max + " members");
                          }
                      }
 
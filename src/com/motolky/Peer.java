@@ -32,22 +32,26 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
 import com.motolky.communication.CommunicationThread;
 import com.motolky.communication.Device;
 import com.motolky.communication.IConnectNotifiable;
 import com.motolky.communication.IConnectable;
+import com.motolky.communication.IConnection;
+import com.motolky.communication.IForwarder;
+import com.motolky.communication.IReceiveHandler;
+import com.motolky.sound.OriginDemux;
 import com.motolky.sound.Player;
 import com.motolky.sound.RecordThread;
 
 /**
  * The class that defines a communication peer. This class makes the
- * abstraction between a bluetooth device that is listening for
+ * abstraction between a device that is listening for
  * connections and one that is connecting.
  *
- * It basically gets an IConnectable object that gives it an open socket.
+ * It basically gets an IConnectable object that gives it an open link,
+ * over whatever transport the group uses.
  * Moreover it gets a thread (aka recording thread) that is getting sound from the local microphone.
  * It creates the player on which the received sound will be played.
  * It creates a communication thread that receives data from the socket
@@ -56,28 +60,37 @@ import com.motolky.sound.RecordThread;
  * to the socket.
  *
  * This class' main purpose is to reconnect whenever a socket
- * closes.
+ * closes. The peers that connect get their links from the
+ * ReconnectScheduler, which makes the attempts of all of them one at a time
+ * and waits between the failed ones.
+ *
+ * In relay mode the link carries the sound of several members, so every
+ * member gets a player of its own. On the relay itself, the link is also
+ * given to the relay, which forwards what arrives on it to the others.
+ * In multi-hop mode every link is given to the mesh forwarder, which plays
+ * and forwards what arrives on it, so the link has no player of its own.
  */
 public class Peer extends Thread {
     private IConnectable mConnectable = null;
-    private BluetoothSocket mSocket = null;
+    private IConnection mConnection = null;
     private boolean mStopped = false;
     private Device mRemoteDevice = null;
     private boolean mError = false;
     private RecordThread mRecordThread = null;
     private boolean mAskNewSocket;
     private IConnectNotifiable mConnectNotifiable = null;
+    private IForwarder mForwarder = null;
     private final Lock mLock = new ReentrantLock();
     private final Condition mErrorOrStopCondition = mLock.newCondition();
 
     /**
      * Constructor
      * @param recordThread - the thread that is recording from the local microphone
-     * @param connectable - the object that returns a socket every time a disconnection occurs
+     * @param connectable - the object that returns a link every time a disconnection occurs
      * @param connectNotifiable - the object whose methods are called whenever a connection
      *             or disconnection occurs
-     * @param remoteDevice - the bluetooth device from the other side of the connection
-     * @param socket - the socket to connect to
+     * @param remoteDevice - the device from the other side of the connection
+     * @param connection - the link that is already open, or null
      * @param askNewSocket - When the local device is the server it cannot request for
      *             new sockets. It can only wait for the remote peer to connect again.
      *             Therefore, this parameter needs to be passed as false in this case.
@@ -87,16 +100,26 @@ public class Peer extends Thread {
                 IConnectable connectable,
                 IConnectNotifiable connectNotifiable,
                 Device remoteDevice,
-                BluetoothSocket socket,
+                IConnection connection,
                 boolean askNewSocket) {
         mConnectable = connectable;
         mRemoteDevice = remoteDevice;
-        mSocket = socket;
+        mConnection = connection;
         mRecordThread = recordThread;
         mAskNewSocket = askNewSocket;
         mConnectNotifiable = connectNotifiable;
     }
 
+    /**
+     * Makes the links of the peer go through a forwarder. Must be called
+     * before the thread starts.
+     * @param forwarder - the relay of the group, on the device that is the
+     *             relay, or the mesh forwarder in multi-hop mode
+     */
+    public void setForwarder(IForwarder forwarder) {
+        mForwarder = forwarder;
+    }
+
     public String getRemoteDeviceName() {
         return mRemoteDevice.getName();
     }
@@ -143,29 +166,41 @@ public class Peer extends Thread {
             try {
                 if (mAskNewSocket)
                 	// Connect again
-                    mSocket = mConnectable.getSocket(this, mRemoteDevice);
-            } catch (IOException ioe) { // Probably device is not in range
+                    mConnection = mConnectable.getConnection(this, mRemoteDevice);
+            } catch (IOException ioe) { // The connectable gave up retrying
                 Log.e(Common.TAG, "Error getting the socket: " + ioe.getMessage());
-                try {
-                    sleep(Common.RECONNECT_TIMEOUT);
-                } catch (InterruptedException ie) {
-                	Log.e(Common.TAG, ie.getMessage());
-                }
-                continue;
+                return;
             } catch (Exception e) {
                 Log.e(Common.TAG, e.getMessage());
                 return;
             }
 
-            if (mSocket == null) // This means I should not try to reconnect again (I am on a server)
+            if (mConnection == null) // This means I should not try to reconnect again
+                                     // (I am on a server, or the talk ends)
                 return;
 
             mError = false;
             // Create the communication thread, the recorder and the track
-            Player player = Player.getNewPlayer();
-            CommunicationThread commThread = new CommunicationThread(player, mSocket, this);
+            Player player = null;
+            OriginDemux demux = null;
+            IReceiveHandler receiveHandler = null;
+            if (Common.MULTI_HOP) {
+                // The mesh forwarder plays what arrives on every link itself
+            } else if (Common.RELAY_MODE) {
+                demux = new OriginDemux();
+                receiveHandler = demux;
+            } else {
+                player = Player.getNewPlayer();
+                receiveHandler = player;
+            }
+            CommunicationThread commThread = new CommunicationThread(receiveHandler,
+                                                                     mConnection, this);
+            if (mForwarder != null) {
+                commThread.setForwarder(mForwarder);
+                mForwarder.addLink(commThread);
+            }
             commThread.start();
-            mRecordThread.addSendHandler(commThread);
+            mRecordThread.addSendHandler(commThread, player);
             // Connected ok. Report this
             mConnectNotifiable.connected(this);
 
@@ -181,7 +216,12 @@ public class Peer extends Thread {
             }
 
             // Delete the player and the communication thread
-            Player.deletePlayer(player);
+            if (player != null)
+                Player.deletePlayer(player);
+            else if (demux != null)
+                demux.exit();
+            if (mForwarder != null)
+                mForwarder.removeLink(commThread);
             mRecordThread.removeSendHandler(commThread);
             commThread.cancel();
             if (!mStopped) // It was a communication error
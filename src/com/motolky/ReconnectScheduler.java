@@ -0,0 +1,208 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+import com.motolky.communication.Device;
+import com.motolky.communication.IConnectable;
+import com.motolky.communication.IConnection;
+
+/**
+ * This class owns the attempts of all the peers to open their links. The
+ * peers of a group tend to lose their links at the same time, for example
+ * in a tunnel, and when all of them page their devices at once the pages
+ * collide and every link takes longer to come back.
+ *
+ * So only one attempt is in flight at a time, the peer that is due first
+ * going first. A peer whose attempt failed waits before the next one:
+ * Common.RECONNECT_MIN_TIMEOUT after its first
+ * Common.TIMES_TO_USE_MIN_RECONNECT_TIMEOUT failures, then twice as long
+ * after every failure, up to Common.RECONNECT_MAX_TIMEOUT. Every wait is
+ * changed randomly by up to JITTER of it, such that the peers do not retry
+ * in lockstep. A peer that connects for the first time, or that just lost a
+ * link which stayed up for Common.RECONNECT_STABLE_TIME, tries at once,
+ * after at most FAST_RETRY_JITTER miliseconds. A link lost sooner counts as
+ * one more failure, such that a peer whose link keeps flapping backs off.
+ *
+ * The peers call getConnection() from their own threads and wait there for
+ * their turn, until they get a link or the scheduler exits.
+ */
+public class ReconnectScheduler implements IConnectable {
+    private static final float JITTER = 0.25f;
+    private static final int FAST_RETRY_JITTER = 500; // miliseconds
+    private static final int MAX_DOUBLINGS = 16;
+
+    private final IConnectable mConnectable;
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mChanged = mLock.newCondition();
+    // The peers waiting for their turn, with the time of their next attempt
+    private final Map<Peer, Long> mDue = new HashMap<Peer, Long>();
+    // The failures of every peer before its last link, and when that link opened
+    private final Map<Peer, Integer> mFailures = new HashMap<Peer, Integer>();
+    private final Map<Peer, Long> mConnected = new HashMap<Peer, Long>();
+    private final Random mRandom = new Random();
+    private boolean mBusy = false;
+    private boolean mExit = false;
+
+    /**
+     * Constructor
+     * @param connectable - the object that opens the links
+     */
+    public ReconnectScheduler(IConnectable connectable) {
+        mConnectable = connectable;
+    }
+
+    /**
+     * Opens a link to a device when the turn of the peer comes, and retries
+     * until it succeeds
+     * @param peer - the peer that asks for the link
+     * @param device - the device to connect to
+     * @return the link, or null if the scheduler exited
+     */
+    @Override
+    public IConnection getConnection(Peer peer, Device device) {
+        int failures = 0;
+        mLock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            Long connected = mConnected.get(peer);
+            if (connected == null || now - connected >= Common.RECONNECT_STABLE_TIME) {
+                mDue.put(peer, now + mRandom.nextInt(FAST_RETRY_JITTER));
+            } else {
+                failures = mFailures.get(peer) + 1;
+                long delay = getDelay(failures);
+                Log.d(Common.TAG, "The link was lost after " + (now - connected) +
+                        " ms, retrying to connect in " + delay + " ms");
+                mDue.put(peer, now + delay);
+            }
+            while (waitTurn(peer)) {
+                // Connect without holding the lock, such that the other
+                // peers can get in line meanwhile
+                mBusy = true;
+                mLock.unlock();
+                IConnection connection = null;
+                try {
+                    connection = mConnectable.getConnection(peer, device);
+                } catch (IOException ioe) { // Probably the device is not in range
+                    Log.e(Common.TAG, "Error getting the socket: " + ioe.getMessage());
+                } finally {
+                    mLock.lock();
+                    mBusy = false;
+                    mChanged.signalAll();
+                }
+
+                if (connection != null) {
+                    if (!mExit) {
+                        mFailures.put(peer, failures);
+                        mConnected.put(peer, System.currentTimeMillis());
+                        return connection;
+                    }
+                    try {
+                        connection.close();
+                    } catch (IOException ioe) {
+                        Log.e(Common.TAG, "Error closing the socket: " + ioe.getMessage());
+                    }
+                    return null;
+                }
+
+                failures++;
+                long delay = getDelay(failures);
+                Log.d(Common.TAG, "Retrying to connect in " + delay + " ms, after " +
+                        failures + " failures");
+                mDue.put(peer, System.currentTimeMillis() + delay);
+            }
+            return null;
+        } finally {
+            mDue.remove(peer);
+            mChanged.signalAll();
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the peers waiting for their turn give up
+     */
+    public void exit() {
+        mLock.lock();
+        mExit = true;
+        mChanged.signalAll();
+        mLock.unlock();
+    }
+
+    /**
+     * Waits until no attempt is in flight, the time of the peer came and
+     * no other peer is due before it. Called with the lock held.
+     * @return false if the scheduler exited
+     */
+    private boolean waitTurn(Peer peer) {
+        while (!mExit) {
+            long due = mDue.get(peer);
+            long now = System.currentTimeMillis();
+            try {
+                if (mBusy || isAnyDueBefore(due))
+                    mChanged.await();
+                else if (due > now)
+                    mChanged.await(due - now, TimeUnit.MILLISECONDS);
+                else
+                    return true;
+            } catch (InterruptedException ie) {
+                Log.e(Common.TAG, ie.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private boolean isAnyDueBefore(long due) {
+        for (long other : mDue.values())
+            if (other < due)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return how long to wait after the given number of failures, in miliseconds
+     */
+    long getDelay(int failures) {
+        long delay = Common.RECONNECT_MIN_TIMEOUT;
+        int doublings = failures - Common.TIMES_TO_USE_MIN_RECONNECT_TIMEOUT;
+        if (doublings > 0)
+            delay <<= Math.min(doublings, MAX_DOUBLINGS);
+        delay = Math.min(delay, Math.max(Common.RECONNECT_MIN_TIMEOUT, Common.RECONNECT_MAX_TIMEOUT));
+        return (long)(delay * (1 - JITTER + 2 * JITTER * mRandom.nextFloat()));
+    }
+}
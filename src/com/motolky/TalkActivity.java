@@ -39,7 +39,6 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ListActivity;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -62,8 +61,15 @@ import android.widget.ToggleButton;
 
 import com.motolky.communication.Device;
 import com.motolky.communication.IConnectNotifiable;
+import com.motolky.communication.BluetoothTransport;
 import com.motolky.communication.IConnectable;
+import com.motolky.communication.IConnection;
+import com.motolky.communication.ITransport;
+import com.motolky.communication.IForwarder;
+import com.motolky.communication.MeshForwarder;
+import com.motolky.communication.Relay;
 import com.motolky.communication.ServerThread;
+import com.motolky.sound.OriginDemux;
 import com.motolky.sound.Player;
 import com.motolky.sound.RecordThread;
 
@@ -78,7 +84,11 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
     private List<Device> mGroupDevices;
     private ArrayAdapter<Device> mAdapter;
     private BluetoothAdapter mBluetoothAdapter = null;
+    private ITransport mTransport = null;
+    private IForwarder mForwarder = null;
+    private OriginDemux mMeshDemux = null;
     private List<Peer> mConnectedToPeers = null;
+    private ReconnectScheduler mReconnectScheduler = null;
     private List<ServerThread> mServerThreads = null;
     private RecordThread mRecordThread = null;
     private BroadcastReceiver mReceiver = null;
@@ -158,23 +168,21 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
     }
 
     /**
-     * Creates a socket to the given remote device.
+     * Opens a link to the given remote device.
      */
     @Override
-    public BluetoothSocket getSocket(Peer peer, Device device)
+    public IConnection getConnection(Peer peer, Device device)
             throws IOException {
-        BluetoothSocket socket = null;
+        IConnection connection = null;
         try {
-            socket = device.getBluetoothDevice().
-                                    createRfcommSocketToServiceRecord(device.getUUID());
-            socket.connect();
+            connection = mTransport.connect(device);
 
             Log.d(Common.TAG, "Connected to device.");
         } catch (IOException ioe) {
             Log.e(Common.TAG, "Connect to device error: " + ioe.getMessage());
             throw ioe;
         }
-        return socket;
+        return connection;
     }
 
     /**
@@ -221,6 +229,13 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
         // Get the preferences
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         Common.ENABLE_VAD = prefs.getBoolean("VAD Enable", false);
+        Common.ENABLE_FEC = prefs.getBoolean("FEC Enable", false);
+        // The sample rate cannot change while talking, so it is only read here
+        Common.SAMPLE_RATE = prefs.getBoolean("Wideband Enable", false) ?
+                Common.WIDEBAND_RATE : Common.NARROWBAND_RATE;
+        Common.HUB_MODE = prefs.getBoolean("Hub Mode", false);
+        Common.RELAY_MODE = Common.HUB_MODE && prefs.getBoolean("Relay Mode", false);
+        Common.MULTI_HOP = !Common.HUB_MODE && prefs.getBoolean("Multi-hop", false);
         try {
             Common.RECONNECT_MIN_TIMEOUT = Integer.parseInt(prefs.getString("Reconnect Timeout", "3")) * 1000;
         } catch (Exception e) {
@@ -251,6 +266,7 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
             	// Preferences have been changed
                 SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
                 Common.ENABLE_VAD = prefs.getBoolean("VAD Enable", false);
+                Common.ENABLE_FEC = prefs.getBoolean("FEC Enable", false);
                 try {
                     Common.RECONNECT_MIN_TIMEOUT = Integer.parseInt(prefs.getString("Reconnect Timeout", "3")) * 1000;
                 } catch (Exception e) {
@@ -292,12 +308,24 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
                 serverThread.exit();
             mServerThreads = null;
         }
+        if (mForwarder != null) {
+            mForwarder.exit();
+            mForwarder = null;
+        }
         // Stop connecting peers
+        if (mReconnectScheduler != null) {
+            mReconnectScheduler.exit();
+            mReconnectScheduler = null;
+        }
         if (mConnectedToPeers != null) {
             for (Peer peer : mConnectedToPeers)
                 peer.exit();
             mConnectedToPeers = null;
         }
+        if (mMeshDemux != null) {
+            mMeshDemux.exit();
+            mMeshDemux = null;
+        }
 
         // Stop recording capturing the microphone
         if (mRecordThread != null) {
@@ -385,8 +413,9 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
      */
     private void listenFor(Device device) {
         device.setUUID(createUUID(device.getName(), mBluetoothAdapter.getName()));
-        ServerThread serverThread = new ServerThread(mRecordThread, mBluetoothAdapter,
+        ServerThread serverThread = new ServerThread(mRecordThread, mTransport,
                                                     device, this);
+        serverThread.setForwarder(mForwarder);
         serverThread.start();
         mServerThreads.add(serverThread);
     }
@@ -397,11 +426,26 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
      */
     private void connectTo(Device device) {
         device.setUUID(createUUID(mBluetoothAdapter.getName(), device.getName()));
-        Peer peer = new Peer(mRecordThread, this, this, device, null, true);
+        Peer peer = new Peer(mRecordThread, mReconnectScheduler, this, device, null, true);
+        peer.setForwarder(mForwarder);
         peer.start();
         mConnectedToPeers.add(peer);
     }
 
+    /**
+     * Tells whether a device comes before another one in the order of the
+     * group: by name, and by MAC address when the names are the same.
+     * @param device - the device to place
+     * @param name - the lower case name of the other device
+     * @param address - the MAC address of the other device
+     */
+    private static boolean comesBefore(Device device, String name, String address) {
+        int order = device.getName().toLowerCase().compareTo(name);
+        if (order == 0) // The have the same name -> Sort by MAC address
+            order = device.getBluetoothDevice().getAddress().compareTo(address);
+        return order < 0;
+    }
+
     /**
      * Creates a name for the connection that will imply this two devices.
      * This name is computed from the names of the two devices such that
@@ -502,12 +546,22 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
         // Creates the list of threads that will listen for connection
         // and the list of peers that will manage the connections.
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        mTransport = new BluetoothTransport(mBluetoothAdapter);
         String myDeviceName = mBluetoothAdapter.getName().toLowerCase();
         mServerThreads = new Vector<ServerThread>();
         mConnectedToPeers = new Vector<Peer>();
+        mReconnectScheduler = new ReconnectScheduler(this);
+
+        // Every member numbers itself by its place in the group. All the
+        // members sort the group the same way, so the numbers are unique.
+        int origin = 0;
+        for (Device device : mGroupDevices)
+            if (comesBefore(device, myDeviceName, mBluetoothAdapter.getAddress()))
+                origin++;
+        Common.LOCAL_ORIGIN = origin;
 
         // Create the thread that will record the microphone
-        mRecordThread = new RecordThread(Common.AUDIO_BUFFER_LEN);
+        mRecordThread = new RecordThread();
 
         // Take each device in the group. Kind of, sort them lexicographically.
         // Connect to the ones that have smaller lexicographical names than the local device name,
@@ -515,18 +569,38 @@ public class TalkActivity extends ListActivity implements INotifiable, IConnecta
         // For example say we have the following devices: bill, angie, jack and my
         // device name is bond. I will connect to angie and bill, but I will listen
         // for connections from jack.
-        for (Device device : mGroupDevices)
-            if (device.getName().toLowerCase().compareTo(myDeviceName) < 0) { // Connect to it
-                connectTo(device);
-            } else if (device.getName().toLowerCase().compareTo(myDeviceName) > 0) { // Listen for connection
-                listenFor(device);
-            } else { // The have the same name -> Sort by MAC address
-                if (device.getBluetoothDevice().getAddress().
-                        compareTo(mBluetoothAdapter.getAddress()) < 0)
-                    connectTo(device);
+        // In hub mode only the first device is connected to, by all the others.
+        // With the devices above, angie is the hub and it listens for everyone.
+        if (Common.HUB_MODE) {
+            Device hub = null;
+            for (Device device : mGroupDevices)
+                if (hub == null || comesBefore(device, hub.getName().toLowerCase(),
+                                               hub.getBluetoothDevice().getAddress()))
+                    hub = device;
+            if (hub != null && comesBefore(hub, myDeviceName, mBluetoothAdapter.getAddress())) {
+                connectTo(hub);
+            } else {
+                // The hub either forwards the sound of the members or mixes it
+                if (Common.RELAY_MODE)
+                    mForwarder = new Relay();
                 else
+                    mRecordThread.startHub();
+                for (Device device : mGroupDevices)
                     listenFor(device);
             }
+        } else {
+            // In multi-hop mode the frames of all the links are played by a
+            // player per origin, whatever the link they come on
+            if (Common.MULTI_HOP) {
+                mMeshDemux = new OriginDemux();
+                mForwarder = new MeshForwarder(mMeshDemux);
+            }
+            for (Device device : mGroupDevices)
+                if (comesBefore(device, myDeviceName, mBluetoothAdapter.getAddress()))
+                    connectTo(device);
+                else
+                    listenFor(device);
+        }
         mRecordThread.start();
 
         // Listener for the volume bar
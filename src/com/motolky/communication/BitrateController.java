@@ -0,0 +1,154 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * This class decides how much the quality of the sound sent on a link is
+ * lowered, in steps. It watches the send queue of the link, how long the
+ * writes on the socket take and the losses reported by the receiver.
+ *
+ * A congested link goes down a step at once, then at most a step every
+ * DOWN_INTERVAL miliseconds while it stays congested. It goes back up a
+ * step only after it stayed clear for Common.QUALITY_UPGRADE_DELAY
+ * miliseconds. A link is clear below thresholds lower than the ones that
+ * make it congested, such that the quality does not swing between two
+ * steps. Every decision is logged.
+ */
+/**
+  *このクラスは、リンクで送信する音声の品質を何段階下げるかを決めます。リンクの
+  *送信キュー、ソケットへの書き込みにかかる時間、受信側が報告した損失を監視します。
+  *混雑したリンクはすぐに1段階下がり、混雑が続く間はDOWN_INTERVALミリ秒ごとに
+  *最大1段階下がります。Common.QUALITY_UPGRADE_DELAYミリ秒の間問題がなかった後に
+  *だけ1段階戻ります。品質が2つの段階の間で揺れないように、問題なしとみなす
+  *しきい値は混雑とみなすしきい値より低くなっています。すべての決定はログに記録されます。
+  */
+public class BitrateController {
+    public static final int MAX_STEP = 3;
+
+    // Minimum time between two steps down, in miliseconds
+    private static final long DOWN_INTERVAL = 1000;
+    // A write longer than this means the link is congested, in miliseconds
+    private static final float HIGH_WRITE_LATENCY = 40;
+    // ...and shorter than this that it is clear
+    private static final float LOW_WRITE_LATENCY = 10;
+    // The same for the fraction lost reported by the receiver, out of 256 (5% and 1%)
+    private static final int HIGH_LOSS = 13;
+    private static final int LOW_LOSS = 3;
+
+    private int mStep = 0;
+    private long mLastChange = 0;
+    private long mClearSince = 0;
+    private int mLastDropped = 0;
+    private int mRemoteLoss = 0;
+    private int mDowns = 0;
+    private int mUps = 0;
+
+    /**
+     * Notifies the controller of the losses reported by the receiver
+     * @param fractionLost - the fraction of the frames lost, out of 256
+     */
+/**
+     *受信側が報告した損失をコントローラに通知します
+     *@パラメータfractionLost - 失われたフレームの割合（256分率）
+     */
+    public void setRemoteLoss(int fractionLost) {
+        mRemoteLoss = fractionLost;
+    }
+
+    /**
+     * Decides the quality step of the next data sent on the link
+     * @param queue - the send queue of the link
+     * @param now - the current time, in miliseconds
+     * @return the quality step, 0 being the best quality
+     */
+/**
+     *リンクで次に送信するデータの品質段階を決めます
+     *@パラメータキュー - リンクの送信キュー
+     *@パラメータnow - 現在時刻（ミリ秒）
+     *@戻り値品質段階、0が最高品質
+     */
+    public int update(SendQueue queue, long now) {
+        int depth = queue.getDepth();
+        int dropped = queue.getDropped();
+        float latency = queue.getWriteLatency();
+        boolean congested = depth > queue.getCapacity() / 2 || dropped > mLastDropped ||
+                latency > HIGH_WRITE_LATENCY || mRemoteLoss > HIGH_LOSS;
+        boolean clear = depth == 0 && dropped == mLastDropped &&
+                latency < LOW_WRITE_LATENCY && mRemoteLoss < LOW_LOSS;
+        mLastDropped = dropped;
+        if (!clear)
+            mClearSince = now;
+
+        if (congested) {
+            if (mStep < MAX_STEP && now - mLastChange >= DOWN_INTERVAL) {
+                change(mStep + 1, now, depth, latency);
+                mDowns++;
+            }
+        } else if (clear && mStep > 0 && now - mClearSince >= Common.QUALITY_UPGRADE_DELAY &&
+                now - mLastChange >= Common.QUALITY_UPGRADE_DELAY) {
+            change(mStep - 1, now, depth, latency);
+            mUps++;
+        }
+        return mStep;
+    }
+
+    public int getStep() {
+        return mStep;
+    }
+
+    /**
+     * @return how many times the quality was lowered
+     */
+/**
+     *@戻り値品質が下げられた回数
+     */
+    public int getDowns() {
+        return mDowns;
+    }
+
+    /**
+     * @return how many times the quality was raised
+     */
+/**
+     *@戻り値品質が上げられた回数
+     */
+    public int getUps() {
+        return mUps;
+    }
+
+    private void change(int step, long now, int depth, float latency) {
+        Log.d(Common.TAG, "Quality step " + mStep + " -> " + step + ": queue " + depth +
+                ", write " + latency + " ms, remote loss " + (mRemoteLoss * 100 / 256) + "%");
+        mStep = step;
+        mLastChange = now;
+    }
+}
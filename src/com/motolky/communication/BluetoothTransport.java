@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * The transport over Bluetooth RFCOMM sockets. The link with a device is
+ * identified by the UUID of the device, which is computed from the names of
+ * the two devices.
+ */
+/**
+  *Bluetooth RFCOMMソケット上のトランスポート。デバイスとのリンクは、
+  *2つのデバイスの名前から計算されるデバイスのUUIDで識別されます。
+  */
+public class BluetoothTransport implements ITransport {
+    private final BluetoothAdapter mBtAdapter;
+
+    public BluetoothTransport(BluetoothAdapter bluetoothAdapter) {
+        mBtAdapter = bluetoothAdapter;
+    }
+
+    @Override
+    public IConnection connect(Device device) throws IOException {
+        BluetoothSocket socket = device.getBluetoothDevice().
+                                    createRfcommSocketToServiceRecord(device.getUUID());
+        socket.connect();
+        return new BluetoothConnection(socket);
+    }
+
+    @Override
+    public IAcceptor listen(Device device) throws IOException {
+        final BluetoothServerSocket serverSocket =
+                mBtAdapter.listenUsingRfcommWithServiceRecord(mBtAdapter.getName(),
+                                                              device.getUUID());
+        return new IAcceptor() {
+            @Override
+            public IConnection accept() throws IOException {
+                return new BluetoothConnection(serverSocket.accept());
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    private static class BluetoothConnection implements IConnection {
+        private final BluetoothSocket mSocket;
+
+        public BluetoothConnection(BluetoothSocket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public boolean isDatagram() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
 import com.motolky.Common;
@@ -24,18 +23,27 @@ import com.motolky.Peer;
  *エラーがソケットで発生します。
  */
 public class CommunicationThread extends Thread implements ISendHandler {
-    private int LAG_CUT_TIMEOUT = 200;
+    private static final int RECEIVE_BUFFER_LEN = 4096;
     private IReceiveHandler mReceiveHandler = null;
-    private BluetoothSocket mSocket = null;
+    private IConnection mConnection = null;
     private InputStream mInputStream = null;
     private OutputStream mOutputStream = null;
     private Peer mPeer = null;
     private boolean mStopped = false;
+    private final SendQueue mSendQueue;
+    private final SendThread mSendThread = new SendThread();
+    private final LayerSelector mLayerSelector = new LayerSelector();
+    private final BitrateController mBitrateController = new BitrateController();
+    private final LossMeter mLossMeter = new LossMeter();
+    private final FecEncoder mFecEncoder = new FecEncoder();
+    private final FecDecoder mFecDecoder = new FecDecoder();
+    private volatile IForwarder mForwarder = null;
+    private int mQualityStep = 0;
 
     /**
      * Constructor
      * @param receiveHandler - the data received from the socket will be sent to this object
-     * @param socket - the socket to listen from
+     * @param connection - the link to listen from
      * @param peer - this object needs to be notified when a communication error occurs
      */
 /**
@@ -46,44 +54,83 @@ public class CommunicationThread extends Thread implements ISendHandler {
  *//**
      *コンストラクタ
      *@パラメータreceiveHandler - ソケットから受信したデータは、このオブジェクトに送信されます
-     *@パラメータソケット - から聞くためのソケット
+     *@パラメータconnection - 受信するリンク
      *@パラメータピア - このオブジェクトは、通信エラーが発生したときに通知する必要がある
      */
     public CommunicationThread(IReceiveHandler receiveHandler,
-                                BluetoothSocket socket,
+                                IConnection connection,
                                 Peer peer) {
         mReceiveHandler = receiveHandler;
-        mSocket = socket;
+        mConnection = connection;
         mPeer = peer;
+        mSendQueue = new SendQueue(Common.SEND_QUEUE_LEN, Common.MAX_PACKET_LEN,
+                                   Common.SEND_DROP_OLDEST);
 
         // Create the link to the socket
         try {
-            mInputStream = mSocket.getInputStream();
-            mOutputStream = mSocket.getOutputStream();
+            mInputStream = mConnection.getInputStream();
+            mOutputStream = mConnection.getOutputStream();
         } catch (IOException ioe) {
             Log.e(Common.TAG, "Error getting the input and the output stream: " + ioe.getMessage());
         }
     }
 
     /**
-     * This method receives a buffer with data and sends it on the socket
+     * This method receives a buffer with data and queues it to be sent on
+     * the socket. It never blocks: if the link is too slow and the queue
+     * is full, some data is dropped.
      * @param buffer - where the data is
-     * @param buffer - how many bytes of data to send from the buffer
+     * @param bytes - how many bytes of data to send from the buffer
      */
 /**
-     *このメソッドは、データでバッファを受け取り、ソケット上に送信
+     *このメソッドは、データでバッファを受け取り、ソケット上に送信するためにキューに入れます。
+     *決してブロックしません。リンクが遅すぎてキューがいっぱいの場合、一部のデータは捨てられます。
      *@パラメータバッファ - データがある場合
-     *@パラメータバッファ - 何バイトのデータをバッファから送信先
+     *@パラメータバイト - 何バイトのデータをバッファから送信先
      */
     @Override
     public void sendData(byte[] buffer, int bytes) {
-        try {
-            mOutputStream.write(buffer, 0, bytes);
-        } catch (IOException ioe) {
-            Log.e(Common.TAG, "Error sending data on socket: " + ioe.getMessage());
-            cancel();
-            mPeer.communicationErrorOccured();
-        }
+        mFecEncoder.send(buffer, bytes, null, 0, mSendQueue);
+    }
+
+    @Override
+    public void sendData(byte[] buffer, int bytes, byte[] redundant, int redundantBytes) {
+        mFecEncoder.send(buffer, bytes, redundant, redundantBytes, mSendQueue);
+    }
+
+    @Override
+    public int selectLayer(int[] layerRates, int layers) {
+        long now = System.currentTimeMillis();
+        mQualityStep = mBitrateController.update(mSendQueue, now);
+        return mLayerSelector.select(layerRates, layers, mSendQueue, now);
+    }
+
+    @Override
+    public int getQualityStep() {
+        return mQualityStep;
+    }
+
+    /**
+     * Makes the packets received on this link go through a forwarder, which
+     * forwards them to the other members
+     * @param forwarder - the relay or the mesh forwarder, or null
+     */
+/**
+     *このリンクで受信したパケットを、他のメンバーに転送するフォワーダーに通します
+     *@パラメータフォワーダー - リレーまたはメッシュフォワーダー、またはnull
+     */
+    public void setForwarder(IForwarder forwarder) {
+        mForwarder = forwarder;
+    }
+
+    /**
+     * @return the queue of the data waiting to be sent
+     */
+/**
+     *@戻り値送信を待っているデータのキュー
+     */
+    public SendQueue getSendQueue() {
+        return mSendQueue;
     }
 
     /**
@@ -94,8 +141,19 @@ public class CommunicationThread extends Thread implements ISendHandler {
      */
     public void cancel() {
         mStopped = true;
+        mSendQueue.close();
+        Log.d(Common.TAG, "Send queue: queued " + mSendQueue.getQueued() +
+                ", dropped " + mSendQueue.getDropped() + ", sent " + mSendQueue.getSent() +
+                ", layer switches " + mLayerSelector.getSwitches() +
+                ", quality downs " + mBitrateController.getDowns() +
+                ", ups " + mBitrateController.getUps() +
+                ", lost " + mLossMeter.getLost() +
+                ", FEC parities " + mFecEncoder.getParities() +
+                ", copies " + mFecEncoder.getCopies() +
+                ", rebuilt " + mFecDecoder.getRebuilt() +
+                ", copies played " + mFecDecoder.getCopies());
         try {
-            mSocket.close();
+            mConnection.close();
         } catch (IOException ioe) {
             Log.e(Common.TAG, "Error closing the socket: " + ioe.getMessage());
         }
@@ -111,26 +169,62 @@ public class CommunicationThread extends Thread implements ISendHandler {
      */
     @Override
     public void run() {
-        byte[] buffer = new byte[1024];
+        FrameParser parser = new FrameParser(RECEIVE_BUFFER_LEN);
+        FramePacker unpacker = new FramePacker(Common.MAX_PACKET_LEN);
+        byte[] feedback = new byte[LossMeter.FEEDBACK_LEN];
+        long lastFeedback = System.currentTimeMillis();
         int bytes;
-        int times = 0;
 
+        mSendThread.start();
         while (!mStopped) {
             try {
-                if (times == 0) {
-                    try {
-                    	// Sometimes lag occurs. Therefore, from time to time
-                    	// we just ignore a large chunk of data from input stream
-                    	// in order to synchronize the communication.
-                        mInputStream.skip(1024000);
-                    } catch (Exception e) {}
-                    times = LAG_CUT_TIMEOUT;
+                // Read from socket and send the complete frames to the handler.
+                // The packets holding several frames are unpacked. Only the
+                // copies of the packets already received are thrown away here:
+                // the players keep their own latency in check.
+                bytes = mInputStream.read(parser.getBuffer(), parser.getWriteOffset(),
+                                          parser.getFreeSpace());
+                if (bytes < 0)
+                    throw new IOException("End of stream");
+                parser.written(bytes);
+                while (parser.nextFrame()) {
+                    byte[] buffer = parser.getBuffer();
+                    int offset = parser.getFrameOffset();
+                    int length = parser.getFrameLength();
+                    int flags = FrameFormat.getFlags(buffer, offset);
+                    if ((flags & FrameFormat.FLAG_FEEDBACK) != 0) {
+                        int loss = LossMeter.readFeedback(buffer, offset);
+                        mBitrateController.setRemoteLoss(loss);
+                        mFecEncoder.setRemoteLoss(loss, System.currentTimeMillis());
+                        continue;
+                    }
+
+                    // The lost packets are rebuilt before anything else sees them
+                    if ((flags & FrameFormat.FLAG_PARITY) != 0) {
+                        length = mFecDecoder.rebuild(buffer, offset, length);
+                        if (length > 0)
+                            receivePacket(mFecDecoder.getPacket(), 0, length, unpacker);
+                        continue;
+                    }
+
+                    // The losses are counted before the correction, such
+                    // that the sender keeps correcting them
+                    if ((flags & FrameFormat.FLAG_REDUNDANT) == 0)
+                        mLossMeter.count(buffer, offset);
+                    if (mFecDecoder.accept(buffer, offset, length))
+                        receivePacket(buffer, offset, length, unpacker);
                 }
-                times--;
+                // A datagram holds whole frames. Whatever is left was cut
+                // short and must not be glued to the next datagram.
+                if (mConnection.isDatagram())
+                    parser.reset();
 
-                // Read from socket and send to the handler
-                bytes = mInputStream.read(buffer);
-                mReceiveHandler.receiveData(buffer, bytes);
+                // Tell the peer how many of its frames were lost
+                long now = System.currentTimeMillis();
+                if (now - lastFeedback >= Common.FEEDBACK_INTERVAL && mLossMeter.hasNews()) {
+                    mSendQueue.offer(feedback, mLossMeter.writeFeedback(feedback));
+                    lastFeedback = now;
+                }
 
             } catch (IOException ioe) {
                 Log.e(Common.TAG, "Error receiving from the socket: " + ioe.getMessage());
@@ -140,4 +234,52 @@ public class CommunicationThread extends Thread implements ISendHandler {
         }
     }
 
+    /**
+     * Plays a packet received on the link, or gives it to the forwarder.
+     * A relay only plays the packets it forwards, and a mesh forwarder plays
+     * the packets itself.
+     */
+/**
+     *リンクで受信したパケットを再生するか、フォワーダーに渡します。
+     *リレーは転送するパケットだけを再生し、メッシュフォワーダーはパケットを自分で再生します。
+     */
+    private void receivePacket(byte[] packet, int offset, int length, FramePacker unpacker)
+            throws IOException {
+        IForwarder forwarder = mForwarder;
+        if (forwarder == null || forwarder.forward(packet, offset, length, this))
+            unpacker.unpack(packet, offset, length, mReceiveHandler);
+    }
+
+    /**
+     * The thread that takes the data out of the send queue and writes it
+     * on the socket. Only this thread waits when the link is slow.
+     */
+/**
+     *送信キューからデータを取り出し、ソケットに書き込むスレッド。
+     *リンクが遅いときに待つのはこのスレッドだけです。
+     */
+    private class SendThread extends Thread {
+        @Override
+        public void run() {
+            byte[] buffer = new byte[mSendQueue.getMaxLength()];
+            try {
+                while (true) {
+                    int bytes = mSendQueue.take(buffer);
+                    if (bytes < 0)
+                        return;
+                    long start = System.nanoTime();
+                    mOutputStream.write(buffer, 0, bytes);
+                    mSendQueue.sent(bytes, System.nanoTime() - start);
+                }
+            } catch (InterruptedException ie) {
+                Log.e(Common.TAG, "Send thread interrupted: " + ie.getMessage());
+            } catch (IOException ioe) {
+                if (mStopped)
+                    return;
+                Log.e(Common.TAG, "Error sending data on socket: " + ioe.getMessage());
+                cancel();
+                mPeer.communicationErrorOccured();
+            }
+        }
+    }
 }
@@ -27,6 +27,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.motolky.communication;
 
+import java.net.InetSocketAddress;
 import java.util.UUID;
 
 import android.bluetooth.BluetoothDevice;
@@ -37,11 +38,16 @@ import android.os.Parcelable;
  * This class encapsulates a bluetooth device. It also contains
  * information about it's status. It can be serialized in order
  * to save it in a bundle.
+ *
+ * When the group does not talk over Bluetooth (see ITransport), the device
+ * is given by a name and by the address of the link with it instead.
  */
 /**
  *このクラスは、Bluetoothデバイスをカプセル化します。また、含まれています
  *それについての情報がステータスだ。それは、順番にシリアル化できる
  *バンドルに保存する。
+ *グループがBluetoothで通信しない場合（ITransportを参照）、デバイスは代わりに
+ *名前とそのデバイスとのリンクのアドレスで与えられます。
  */
 public class Device implements Parcelable {
     public static final Parcelable.Creator<Device> CREATOR =
@@ -63,14 +69,23 @@ public class Device implements Parcelable {
     private boolean mPicked;
     private boolean mConnected = false;
     private UUID mUUID = null;
+    private String mName = null;
+    private InetSocketAddress mAddress = null;
 
     public Device(BluetoothDevice btDevice, boolean paired) {
         mBtDevice = btDevice;
         mPaired = paired;
     }
 
+    public Device(String name, InetSocketAddress address) {
+        mName = name;
+        mAddress = address;
+    }
+
     public Device(Parcel parcel) {
         mBtDevice = parcel.readParcelable(Device.class.getClassLoader());
+        mName = parcel.readString();
+        mAddress = (InetSocketAddress)parcel.readSerializable();
         boolean[] b = new boolean[3];
         parcel.readBooleanArray(b);
         mPaired = b[0];
@@ -84,6 +99,8 @@ public class Device implements Parcelable {
     }
 
     public String getName() {
+        if (mBtDevice == null)
+            return mName;
         return mBtDevice.getName();
     }
 
@@ -91,6 +108,17 @@ public class Device implements Parcelable {
         return mBtDevice;
     }
 
+    /**
+     * @return the address of the link with the device, when it is not a
+     * Bluetooth device
+     */
+/**
+     *@戻り値Bluetoothデバイスでない場合、そのデバイスとのリンクのアドレス
+     */
+    public InetSocketAddress getAddress() {
+        return mAddress;
+    }
+
     public String getStatus() {
         return (mPaired ? "Paired" : "Unpaired");
     }
@@ -127,6 +155,8 @@ public class Device implements Parcelable {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeParcelable(mBtDevice, flags);
+        dest.writeString(mName);
+        dest.writeSerializable(mAddress);
         dest.writeBooleanArray(new boolean[] { mPaired, mConnected, mPicked });
     }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+/**
+ * This class tells whether the frames of an origin were already seen. In a
+ * mesh the same frames come on several links, and only the first copy is
+ * played and forwarded.
+ *
+ * For every origin it keeps the highest sequence number seen and a window of
+ * bits for the WINDOW sequence numbers below it, like the replay window of
+ * IPsec. A packet is seen when its last frame is; all of its frames are then
+ * marked, such that the copies of it that are packed in the same way are
+ * caught. A packet older than the window cannot be told apart from a copy,
+ * so it is dropped. It is too late to play anyway. An origin whose sequence
+ * numbers go back by more than RESTART_DISTANCE started again.
+ */
+/**
+  *このクラスは、オリジンのフレームがすでに見られたかどうかを判断します。メッシュでは
+  *同じフレームが複数のリンクで届くので、最初のコピーだけが再生され転送されます。
+  *オリジンごとに、見られた最も高いシーケンス番号と、その下のWINDOW個の
+  *シーケンス番号のビットのウィンドウを保持します（IPsecのリプレイウィンドウと同様）。
+  *パケットは最後のフレームが見られたときに見られたものとされ、そのすべてのフレームが
+  *印を付けられます。ウィンドウより古いパケットはコピーと区別できないので破棄されます。
+  *シーケンス番号がRESTART_DISTANCE以上戻ったオリジンは、再び開始したものとされます。
+  */
+public class DuplicateFilter {
+    public static final int WINDOW = 64;           // frames
+    private static final int RESTART_DISTANCE = 1024; // frames
+
+    private final boolean[] mStarted = new boolean[FrameFormat.MAX_ORIGINS];
+    private final int[] mHighest = new int[FrameFormat.MAX_ORIGINS];
+    // Bit i is set when the frame i below the highest one was seen
+    private final long[] mWindows = new long[FrameFormat.MAX_ORIGINS];
+
+    /**
+     * Checks a packet and marks its frames as seen
+     * @param origin - the origin of the packet
+     * @param sequence - the sequence number of the first frame of the packet
+     * @param frames - how many frames the packet holds
+     * @return true if the packet was not seen before
+     */
+/**
+     *パケットを確認し、そのフレームに見られた印を付けます
+     *@パラメータオリジン - パケットのオリジン
+     *@パラメータシーケンス - パケットの最初のフレームのシーケンス番号
+     *@パラメータフレーム - パケットが保持するフレームの数
+     *@戻り値パケットが以前に見られていない場合はtrue
+     */
+    public boolean accept(int origin, int sequence, int frames) {
+        int last = (sequence + frames - 1) & 0xFFFF;
+        if (!mStarted[origin]) {
+            mStarted[origin] = true;
+            mHighest[origin] = last;
+            mWindows[origin] = 0;
+        } else {
+            int ahead = (short)(last - mHighest[origin]);
+            if (ahead > 0) {
+                mWindows[origin] = ahead >= WINDOW ? 0 : mWindows[origin] << ahead;
+                mHighest[origin] = last;
+            } else if (ahead < -RESTART_DISTANCE) {
+                mHighest[origin] = last;
+                mWindows[origin] = 0;
+            }
+        }
+
+        int age = (short)(mHighest[origin] - last);
+        if (age >= WINDOW || (mWindows[origin] & (1L << age)) != 0)
+            return false;
+        for (int i = age; i < age + frames && i < WINDOW; i++)
+            mWindows[origin] |= 1L << i;
+        return true;
+    }
+}
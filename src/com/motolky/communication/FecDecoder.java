@@ -0,0 +1,201 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import com.motolky.Common;
+
+/**
+ * This class undoes the forward error correction of a link (see FecEncoder)
+ * before the packets are forwarded or given to the decoders.
+ *
+ * It keeps a copy of the last STORED packets received. When a parity frame
+ * arrives and exactly one of the packets it covers is missing, the missing
+ * packet is the XOR of the parity and of the other packets. A redundant copy
+ * is only played when the packet it copies was not received.
+ *
+ * Every packet goes through a DuplicateFilter, such that a packet that
+ * arrives after its copy or after it was rebuilt is not played twice.
+ */
+/**
+  *このクラスは、パケットが転送されるかデコーダに渡される前に、リンクの前方誤り訂正を
+  *元に戻します（FecEncoderを参照）。
+  *最後に受信したSTORED個のパケットのコピーを保持します。パリティフレームが届き、
+  *それが対象とするパケットのうち1つだけが欠けている場合、欠けているパケットは
+  *パリティと他のパケットのXORです。冗長コピーは、コピー元のパケットが受信されなかった
+  *場合にだけ再生されます。
+  *すべてのパケットはDuplicateFilterを通るので、コピーの後に届いたパケットや
+  *再構築された後に届いたパケットが2回再生されることはありません。
+  */
+public class FecDecoder {
+    private static final int STORED = 2 * FecEncoder.MAX_PARITY_GROUP;
+
+    private final DuplicateFilter mFilter = new DuplicateFilter();
+    private final byte[][] mStored = new byte[STORED][Common.MAX_PACKET_LEN];
+    private final int[] mStoredLens = new int[STORED];
+    private int mNextStored = 0;
+    private final int[] mFound = new int[FecEncoder.MAX_PARITY_GROUP];
+    private final byte[] mPacket = new byte[Common.MAX_PACKET_LEN];
+    private int mRebuilt = 0;
+    private int mCopies = 0;
+
+    /**
+     * Decides whether a packet is played, and keeps it for the parity
+     * @param packet - the buffer holding the packet
+     * @param offset - where the packet starts in the buffer
+     * @param length - the length of the packet
+     * @return true if the packet should be played. A redundant copy that is
+     * played loses its flag.
+     */
+/**
+     *パケットを再生するかどうかを決め、パリティのためにパケットを保持します
+     *@パラメータパケット - パケットを保持するバッファ
+     *@パラメータオフセット - バッファ内のパケットの開始位置
+     *@パラメータ長さ - パケットの長さ
+     *@戻り値パケットを再生すべき場合はtrue。再生される冗長コピーはフラグを失います。
+     */
+    public boolean accept(byte[] packet, int offset, int length) {
+        int flags = FrameFormat.getFlags(packet, offset);
+        if (!mFilter.accept(FrameFormat.getOrigin(packet, offset),
+                FrameFormat.getSequence(packet, offset), FramePacker.getFrameCount(packet, offset)))
+            return false;
+
+        if ((flags & FrameFormat.FLAG_REDUNDANT) != 0) {
+            // The copy differs from the packet, so it cannot stand for it in the parity
+            FrameFormat.setFlags(packet, offset, flags & ~FrameFormat.FLAG_REDUNDANT);
+            mCopies++;
+        } else if (length <= Common.MAX_PACKET_LEN) {
+            System.arraycopy(packet, offset, mStored[mNextStored], 0, length);
+            mStoredLens[mNextStored] = length;
+            mNextStored = (mNextStored + 1) % STORED;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the packet that a parity frame covers and that was lost
+     * @param parity - the buffer holding the parity frame
+     * @param offset - where the frame starts in the buffer
+     * @param length - the length of the frame
+     * @return the length of the rebuilt packet, which is in getPacket(), or
+     * 0 if no packet needs to or can be rebuilt
+     */
+/**
+     *パリティフレームが対象とし、失われたパケットを再構築します
+     *@パラメータパリティ - パリティフレームを保持するバッファ
+     *@パラメータオフセット - バッファ内のフレームの開始位置
+     *@パラメータ長さ - フレームの長さ
+     *@戻り値getPacket()にある再構築されたパケットの長さ。再構築する必要がないか
+     *できない場合は0
+     */
+    public int rebuild(byte[] parity, int offset, int length) {
+        int list = FrameFormat.getPayloadOffset(parity, offset);
+        int count = parity[list] & 0xFF;
+        int xor = list + 1 + 3 * count;
+        int xorLen = offset + length - xor;
+        if (count == 0 || count > mFound.length || xorLen <= 0 || xorLen > mPacket.length)
+            return 0;
+
+        // Look for the covered packets; more than one missing cannot be rebuilt
+        int missing = -1;
+        for (int i = 0; i < count; i++) {
+            mFound[i] = find(parity[list + 1 + 3 * i] & 0xFF,
+                    FrameFormat.readShort(parity, list + 2 + 3 * i));
+            if (mFound[i] >= 0)
+                continue;
+            if (missing >= 0)
+                return 0;
+            missing = i;
+        }
+        if (missing < 0)
+            return 0;
+
+        System.arraycopy(parity, xor, mPacket, 0, xorLen);
+        for (int i = 0; i < count; i++) {
+            if (i == missing)
+                continue;
+            byte[] stored = mStored[mFound[i]];
+            int len = Math.min(mStoredLens[mFound[i]], xorLen);
+            for (int j = 0; j < len; j++)
+                mPacket[j] ^= stored[j];
+        }
+
+        // The rebuilt header must be the one of the missing packet
+        if (xorLen < FrameFormat.HEADER_LEN ||
+                FrameFormat.getVersion(mPacket, 0) != FrameFormat.VERSION ||
+                FrameFormat.getHeaderLength(mPacket, 0) < FrameFormat.HEADER_LEN ||
+                FecEncoder.getPacketLength(mPacket, 0) > xorLen ||
+                FrameFormat.getOrigin(mPacket, 0) != (parity[list + 1 + 3 * missing] & 0xFF) ||
+                FrameFormat.getSequence(mPacket, 0) !=
+                        FrameFormat.readShort(parity, list + 2 + 3 * missing))
+            return 0;
+
+        int packetLen = FecEncoder.getPacketLength(mPacket, 0);
+        if (!accept(mPacket, 0, packetLen))
+            return 0;
+        mRebuilt++;
+        return packetLen;
+    }
+
+    public byte[] getPacket() {
+        return mPacket;
+    }
+
+    /**
+     * @return how many packets were rebuilt from the parity
+     */
+/**
+     *@戻り値パリティから再構築されたパケットの数
+     */
+    public int getRebuilt() {
+        return mRebuilt;
+    }
+
+    /**
+     * @return how many redundant copies were played
+     */
+/**
+     *@戻り値再生された冗長コピーの数
+     */
+    public int getCopies() {
+        return mCopies;
+    }
+
+    /**
+     * @return the index of the stored packet, or -1 if it is not stored
+     */
+/**
+     *@戻り値保持されているパケットのインデックス、保持されていない場合は-1
+     */
+    private int find(int origin, int sequence) {
+        for (int i = 0; i < STORED; i++)
+            if (mStoredLens[i] > 0 && FrameFormat.getOrigin(mStored[i], 0) == origin &&
+                    FrameFormat.getSequence(mStored[i], 0) == sequence)
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * This class adds forward error correction to the packets sent on a link,
+ * such that the receiver rebuilds the packets lost on the way before they
+ * reach its decoder (see FecDecoder). It offers two ways:
+ *
+ * - After every Common.FEC_PARITY_GROUP packets it sends a parity frame,
+ *   the XOR of these packets, which rebuilds any single one of them.
+ * - With every packet of the local sound it sends a low bitrate copy of the
+ *   previous one, taken from the lowest simulcast layer, in the same write.
+ *   It covers a packet that is lost together with the parity of its group.
+ *
+ * Both cost bandwidth, so they are only used when Common.ENABLE_FEC is set
+ * and the loss reported by the receiver is above Common.FEC_LOSS_THRESHOLD. They stop once the loss
+ * stayed below half of it for OFF_DELAY miliseconds. The loss is measured
+ * before the packets are rebuilt, such that the correction does not turn
+ * itself off by hiding the losses.
+ *
+ * The parity goes in a write of its own: on a datagram link it should not
+ * be lost together with the packets it covers.
+ */
+/**
+  *このクラスは、リンクで送信するパケットに前方誤り訂正を追加し、受信側が途中で
+  *失われたパケットをデコーダに届く前に再構築できるようにします（FecDecoderを参照）。
+  *2つの方法を提供します。Common.FEC_PARITY_GROUP個のパケットごとに、それらの
+  *XORであるパリティフレームを送信し、そのどれか1つを再構築できるようにします。
+  *また、ローカルの音声の各パケットと一緒に、最も低いサイマルキャストレイヤーから
+  *取った前のパケットの低ビットレートのコピーを同じ書き込みで送信します。
+  *どちらも帯域を使うので、受信側が報告した損失がCommon.FEC_LOSS_THRESHOLDを
+  *超えている間だけ使われ、損失がその半分未満にOFF_DELAYミリ秒留まると停止します。
+  *パリティは独自の書き込みで送られるので、データグラムのリンクでは対象のパケットと
+  *一緒に失われることはありません。
+  */
+public class FecEncoder {
+    public static final int MAX_PARITY_GROUP = 8;   // packets
+    // How long the loss stays low before the correction stops, in miliseconds
+    private static final long OFF_DELAY = 5000;
+    private static final int PARITY_OVERHEAD =
+            FrameFormat.HEADER_LEN + 1 + 3 * MAX_PARITY_GROUP;
+
+    private final Lock mLock = new ReentrantLock();
+    private boolean mActive = false;
+    private long mLowSince = 0;
+    private final byte[] mOut = new byte[Common.MAX_PACKET_LEN];
+    // The XOR of the packets of the group so far
+    private final byte[] mParity = new byte[Common.MAX_PACKET_LEN - PARITY_OVERHEAD];
+    private final byte[] mCovered = new byte[3 * MAX_PARITY_GROUP];
+    private int mParityLen = 0;
+    private int mGroupCount = 0;
+    private int mParities = 0;
+    private int mCopies = 0;
+
+    /**
+     * Notifies the encoder of the losses reported by the receiver
+     * @param fractionLost - the fraction of the frames lost, out of 256
+     * @param now - the current time, in miliseconds
+     */
+/**
+     *受信側が報告した損失をエンコーダに通知します
+     *@パラメータfractionLost - 失われたフレームの割合（256分率）
+     *@パラメータnow - 現在時刻（ミリ秒）
+     */
+    public void setRemoteLoss(int fractionLost, long now) {
+        mLock.lock();
+        if (Common.ENABLE_FEC && fractionLost > Common.FEC_LOSS_THRESHOLD) {
+            if (!mActive)
+                Log.d(Common.TAG, "FEC on: remote loss " + (fractionLost * 100 / 256) + "%");
+            mActive = true;
+            mLowSince = now;
+        } else if (fractionLost * 2 > Common.FEC_LOSS_THRESHOLD) {
+            mLowSince = now;
+        } else if (mActive && now - mLowSince >= OFF_DELAY) {
+            Log.d(Common.TAG, "FEC off: remote loss " + (fractionLost * 100 / 256) + "%");
+            mActive = false;
+            mGroupCount = 0;
+            mParityLen = 0;
+        }
+        mLock.unlock();
+    }
+
+    /**
+     * Queues whole packets to be sent, with the correction data when the
+     * link is lossy
+     * @param buffer - the packets to send
+     * @param bytes - the length of the packets
+     * @param redundant - the packets sent before, in a lower bitrate, or null
+     * @param redundantBytes - the length of the redundant packets
+     * @param queue - the send queue of the link
+     */
+/**
+     *送信するパケット全体を、リンクの損失が多い場合は訂正データと一緒にキューに入れます
+     *@パラメータバッファ - 送信するパケット
+     *@パラメータバイト - パケットの長さ
+     *@パラメータredundant - 前に送信されたパケットの低ビットレート版、またはnull
+     *@パラメータredundantBytes - 冗長パケットの長さ
+     *@パラメータキュー - リンクの送信キュー
+     */
+    public void send(byte[] buffer, int bytes, byte[] redundant, int redundantBytes,
+                     SendQueue queue) {
+        mLock.lock();
+        try {
+            if (!mActive) {
+                queue.offer(buffer, bytes);
+                return;
+            }
+
+            // The copies of the previous packets follow the packets, flagged
+            if (redundant != null && redundantBytes > 0 &&
+                    bytes + redundantBytes <= mOut.length) {
+                System.arraycopy(buffer, 0, mOut, 0, bytes);
+                System.arraycopy(redundant, 0, mOut, bytes, redundantBytes);
+                for (int offset = bytes; offset < bytes + redundantBytes;
+                        offset += getPacketLength(mOut, offset))
+                    FrameFormat.setFlags(mOut, offset,
+                            FrameFormat.getFlags(mOut, offset) | FrameFormat.FLAG_REDUNDANT);
+                queue.offer(mOut, bytes + redundantBytes);
+                mCopies++;
+            } else {
+                queue.offer(buffer, bytes);
+            }
+
+            if (Common.FEC_PARITY_GROUP > 1)
+                for (int offset = 0; offset < bytes; offset += getPacketLength(buffer, offset))
+                    addToParity(buffer, offset, queue);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Adds a packet to the parity of its group and sends the parity once the group is full
+     */
+/**
+     *パケットをグループのパリティに加え、グループがいっぱいになったらパリティを送信します
+     */
+    private void addToParity(byte[] packet, int offset, SendQueue queue) {
+        int length = getPacketLength(packet, offset);
+        if (length > mParity.length) {
+            // Too long to be covered; the group starts again after it
+            mGroupCount = 0;
+            mParityLen = 0;
+            return;
+        }
+
+        for (int i = mParityLen; i < length; i++)
+            mParity[i] = 0;
+        for (int i = 0; i < length; i++)
+            mParity[i] ^= packet[offset + i];
+        mParityLen = Math.max(mParityLen, length);
+        mCovered[3 * mGroupCount] = (byte)FrameFormat.getOrigin(packet, offset);
+        FrameFormat.writeShort(mCovered, 3 * mGroupCount + 1,
+                FrameFormat.getSequence(packet, offset));
+        mGroupCount++;
+        if (mGroupCount < Math.min(MAX_PARITY_GROUP, Common.FEC_PARITY_GROUP))
+            return;
+
+        // The list of the packets goes right before their parity
+        int listLen = 1 + 3 * mGroupCount;
+        int len = FrameFormat.writeHeader(mOut, 0, 0, FrameFormat.FLAG_PARITY,
+                listLen + mParityLen, 0, 0);
+        mOut[len] = (byte)mGroupCount;
+        System.arraycopy(mCovered, 0, mOut, len + 1, 3 * mGroupCount);
+        System.arraycopy(mParity, 0, mOut, len + listLen, mParityLen);
+        queue.offer(mOut, len + listLen + mParityLen);
+        mParities++;
+        mGroupCount = 0;
+        mParityLen = 0;
+    }
+
+    /**
+     * @return the length of the packet starting at the given offset
+     */
+/**
+     *@戻り値指定されたオフセットで始まるパケットの長さ
+     */
+    static int getPacketLength(byte[] buffer, int offset) {
+        return FrameFormat.getHeaderLength(buffer, offset) +
+                FrameFormat.getPayloadLength(buffer, offset);
+    }
+
+    public int getParities() {
+        return mParities;
+    }
+
+    public int getCopies() {
+        return mCopies;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+/**
+ * This class defines the format of an encoded frame sent over the socket.
+ * Each frame starts with a fixed header, followed by the encoded payload.
+ * All the fields are big endian:
+ *
+ *   0      version
+ *   1      header length, in bytes
+ *   2      codec id
+ *   3      flags
+ *   4-5    payload length, in bytes
+ *   6-7    sequence number
+ *   8-11   capture timestamp, in samples
+ *   12     audio level of the sound, in -dBov: 0 is the loudest, 127 silence
+ *   13     origin: the member of the group that captured the sound
+ *   14     time to live: how many more times the frame may be forwarded
+ *
+ * The header length allows later versions to append fields to the header.
+ * The audio level and the origin let a relay choose which frames to forward
+ * without decoding them (see Relay). The origin, the sequence number and the
+ * time to live let the members of a mesh forward the frames of the members
+ * out of range of each other (see MeshForwarder).
+ *
+ * When the FLAG_PACKED flag is set, the payload holds several consecutive
+ * frames of the same codec (see FramePacker):
+ *
+ *   0      number of frames
+ *   1-2    samples per frame
+ *   3-     payload length of every frame, on two bytes each
+ *   ...    the payloads, one after the other
+ *
+ * The sequence number and the timestamp of the header are those of the
+ * first frame; the next frames follow it without gaps.
+ *
+ * A frame with the FLAG_FEEDBACK flag does not hold sound. It goes back to
+ * the sender of the sound and its payload is the fraction of the frames
+ * lost since the previous feedback, out of 256 (see LossMeter).
+ *
+ * On a lossy link the sender adds forward error correction (see FecEncoder).
+ * A packet with the FLAG_REDUNDANT flag is a low bitrate copy of a packet
+ * sent before it, to be played only if that one was lost. A frame with the
+ * FLAG_PARITY flag rebuilds a packet lost among the packets before it:
+ *
+ *   0      number of packets covered
+ *   1-     origin and sequence number of every packet, on three bytes each
+ *   ...    the packets XOR-ed together, each padded with zeros to the longest
+ */
+/**
+  *このクラスは、ソケットを介して送信される符号化フレームのフォーマットを定義します。
+  *各フレームは固定ヘッダで始まり、符号化されたペイロードが続きます。
+  *すべてのフィールドはビッグエンディアンです。
+  *ヘッダ長により、後のバージョンでヘッダにフィールドを追加することができます。
+  *音声レベルとオリジンにより、リレーはフレームをデコードせずに転送するフレームを
+  *選ぶことができます（Relayを参照）。オリジン、シーケンス番号、生存時間により、
+  *メッシュのメンバーは互いに範囲外にあるメンバーのフレームを転送することができます
+  *（MeshForwarderを参照）。
+  *FLAG_PACKEDフラグが設定されている場合、ペイロードは同じコーデックの連続した
+  *複数のフレームを保持します（FramePackerを参照）。ヘッダのシーケンス番号と
+  *タイムスタンプは最初のフレームのものです。
+  *FLAG_FEEDBACKフラグを持つフレームは音声を保持せず、音声の送信者に返されます。
+  *そのペイロードは、前回のフィードバック以降に失われたフレームの割合（256分率）です。
+  *損失の多いリンクでは、送信者は前方誤り訂正を追加します（FecEncoderを参照）。
+  *FLAG_REDUNDANTフラグを持つパケットは、前に送信されたパケットの低ビットレートの
+  *コピーであり、そのパケットが失われた場合にだけ再生されます。FLAG_PARITYフラグを
+  *持つフレームは、その前のパケットの中で失われたパケットを再構築します。
+  */
+public final class FrameFormat {
+    public static final int VERSION = 3;
+    public static final int HEADER_LEN = 15;
+    public static final int MAX_PAYLOAD_LEN = 0xFFFF;
+    public static final int LEVEL_SILENT = 127;
+    public static final int MAX_ORIGINS = 256;
+
+    // Flags
+    public static final int FLAG_PACKED = 0x01;
+    // The payload is the level of the background noise of the sender, which
+    // does not transmit while its user is silent (see ComfortNoise)
+    public static final int FLAG_COMFORT_NOISE = 0x02;
+    // The frame reports the losses of the receiver to the sender
+    public static final int FLAG_FEEDBACK = 0x04;
+    // The sound was sampled at 16 kHz (wideband) instead of 8 kHz
+    public static final int FLAG_WIDEBAND = 0x08;
+    // The packet is a low bitrate copy of a packet sent before it
+    public static final int FLAG_REDUNDANT = 0x10;
+    // The payload is the parity of the packets sent before it
+    public static final int FLAG_PARITY = 0x20;
+
+    private static final int VERSION_OFFSET = 0;
+    private static final int HEADER_LEN_OFFSET = 1;
+    private static final int CODEC_OFFSET = 2;
+    private static final int FLAGS_OFFSET = 3;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 6;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int LEVEL_OFFSET = 12;
+    private static final int ORIGIN_OFFSET = 13;
+    private static final int TTL_OFFSET = 14;
+
+    private FrameFormat() {
+    }
+
+    /**
+     * Writes a frame header in the given buffer. The audio level is set to
+     * silence, the origin to 0 and the time to live to 0; they are changed
+     * with setLevel(), setOrigin() and setTtl().
+     * @param buffer - where to write the header
+     * @param offset - where the header starts in the buffer
+     * @param codec - the id of the codec the payload was encoded with
+     * @param flags - the flags of the frame
+     * @param payloadLen - the length of the payload that follows the header
+     * @param sequence - the sequence number of the frame
+     * @param timestamp - the capture time of the frame
+     * @return the length of the header
+     */
+/**
+     *指定されたバッファにフレームヘッダを書き込みます。音声レベルは無音に、
+     *オリジンと生存時間は0に設定されます。これらはsetLevel()、setOrigin()、
+     *setTtl()で変更します。
+     *@パラメータバッファ - ヘッダを書き込む場所
+     *@パラメータオフセット - バッファ内のヘッダの開始位置
+     *@パラメータコーデック - ペイロードの符号化に使用したコーデックのID
+     *@パラメータフラグ - フレームのフラグ
+     *@パラメータpayloadLen - ヘッダに続くペイロードの長さ
+     *@パラメータシーケンス - フレームのシーケンス番号
+     *@パラメータタイムスタンプ - フレームのキャプチャ時刻
+     *@戻り値ヘッダの長さ
+     */
+    public static int writeHeader(byte[] buffer, int offset, int codec, int flags,
+                                  int payloadLen, int sequence, int timestamp) {
+        buffer[offset + VERSION_OFFSET] = VERSION;
+        buffer[offset + HEADER_LEN_OFFSET] = HEADER_LEN;
+        buffer[offset + CODEC_OFFSET] = (byte)codec;
+        buffer[offset + FLAGS_OFFSET] = (byte)flags;
+        writeShort(buffer, offset + LENGTH_OFFSET, payloadLen);
+        writeShort(buffer, offset + SEQUENCE_OFFSET, sequence);
+        writeInt(buffer, offset + TIMESTAMP_OFFSET, timestamp);
+        buffer[offset + LEVEL_OFFSET] = LEVEL_SILENT;
+        buffer[offset + ORIGIN_OFFSET] = 0;
+        buffer[offset + TTL_OFFSET] = 0;
+        return HEADER_LEN;
+    }
+
+    public static int getVersion(byte[] buffer, int offset) {
+        return buffer[offset + VERSION_OFFSET] & 0xFF;
+    }
+
+    public static int getHeaderLength(byte[] buffer, int offset) {
+        return buffer[offset + HEADER_LEN_OFFSET] & 0xFF;
+    }
+
+    public static int getCodec(byte[] buffer, int offset) {
+        return buffer[offset + CODEC_OFFSET] & 0xFF;
+    }
+
+    public static int getFlags(byte[] buffer, int offset) {
+        return buffer[offset + FLAGS_OFFSET] & 0xFF;
+    }
+
+    public static int getPayloadLength(byte[] buffer, int offset) {
+        return readShort(buffer, offset + LENGTH_OFFSET);
+    }
+
+    public static int getSequence(byte[] buffer, int offset) {
+        return readShort(buffer, offset + SEQUENCE_OFFSET);
+    }
+
+    public static int getTimestamp(byte[] buffer, int offset) {
+        return readInt(buffer, offset + TIMESTAMP_OFFSET);
+    }
+
+    public static int getLevel(byte[] buffer, int offset) {
+        return buffer[offset + LEVEL_OFFSET] & 0x7F;
+    }
+
+    public static int getOrigin(byte[] buffer, int offset) {
+        return buffer[offset + ORIGIN_OFFSET] & 0xFF;
+    }
+
+    public static int getTtl(byte[] buffer, int offset) {
+        return buffer[offset + TTL_OFFSET] & 0xFF;
+    }
+
+    public static void setFlags(byte[] buffer, int offset, int flags) {
+        buffer[offset + FLAGS_OFFSET] = (byte)flags;
+    }
+
+    public static void setSequence(byte[] buffer, int offset, int sequence) {
+        writeShort(buffer, offset + SEQUENCE_OFFSET, sequence);
+    }
+
+    public static void setLevel(byte[] buffer, int offset, int level) {
+        buffer[offset + LEVEL_OFFSET] = (byte)Math.max(0, Math.min(LEVEL_SILENT, level));
+    }
+
+    public static void setOrigin(byte[] buffer, int offset, int origin) {
+        buffer[offset + ORIGIN_OFFSET] = (byte)origin;
+    }
+
+    public static void setTtl(byte[] buffer, int offset, int ttl) {
+        buffer[offset + TTL_OFFSET] = (byte)ttl;
+    }
+
+    /**
+     * @return where the payload of the frame starts in the buffer
+     */
+/**
+     *@戻り値バッファ内のフレームのペイロードの開始位置
+     */
+    public static int getPayloadOffset(byte[] buffer, int offset) {
+        return offset + getHeaderLength(buffer, offset);
+    }
+
+    static int readShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+    }
+
+    static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >> 8);
+        buffer[offset + 1] = (byte)value;
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) |
+                ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >> 24);
+        buffer[offset + 1] = (byte)(value >> 16);
+        buffer[offset + 2] = (byte)(value >> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+}
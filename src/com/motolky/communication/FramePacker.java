@@ -0,0 +1,296 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+
+/**
+ * This class packs consecutive frames in a single packet, such that they
+ * are sent with a single header and a single write on the socket. It also
+ * unpacks the packets on the receiving side and gives the frames one by one
+ * to a receive handler. See FrameFormat for the layout of a packet.
+ *
+ * Only frames of the same codec, with the same flags, from the same origin,
+ * with the same time to live and with consecutive sequence numbers are
+ * packed together. The audio level of a packet is the one of its loudest
+ * frame. A packet holding a single frame is just that frame.
+ */
+/**
+  *このクラスは、連続したフレームを1つのパケットにまとめ、単一のヘッダと
+  *ソケットへの単一の書き込みで送信されるようにします。また、受信側でパケットを
+  *展開し、フレームを1つずつ受信ハンドラーに渡します。パケットのレイアウトに
+  *ついてはFrameFormatを参照してください。
+  *同じコーデック、同じフラグ、同じオリジン、同じ生存時間、連続したシーケンス番号の
+  *フレームだけがまとめられます。パケットの音声レベルは最も大きいフレームのレベルです。
+  *1つのフレームだけを保持するパケットは、そのフレームそのものです。
+  */
+public class FramePacker {
+    public static final int MAX_FRAMES = 255;
+
+    private static final int COUNT_OFFSET = 0;
+    private static final int SAMPLES_OFFSET = 1;
+    private static final int LENGTHS_OFFSET = 3;
+
+    private final byte[] mPayloads;
+    private final int[] mLengths = new int[MAX_FRAMES];
+    private final int mMaxPacketLen;
+    private int mCount = 0;
+    private int mPayloadsLen = 0;
+    private int mCodec;
+    private int mFlags;
+    private int mOrigin;
+    private int mTtl;
+    private int mLevel;
+    private int mFirstSequence;
+    private int mFirstTimestamp;
+    private int mSamples;
+
+    // Where a frame is rebuilt when a packet is unpacked
+    private final byte[] mFrame;
+
+    /**
+     * Constructor
+     * @param maxPacketLen - the maximum length of a packet, header included
+     */
+/**
+     *コンストラクタ
+     *@パラメータmaxPacketLen - ヘッダを含むパケットの最大長
+     */
+    public FramePacker(int maxPacketLen) {
+        mMaxPacketLen = maxPacketLen;
+        mPayloads = new byte[maxPacketLen];
+        mFrame = new byte[maxPacketLen];
+    }
+
+    /**
+     * Adds a frame to the packet being built
+     * @param frame - the buffer holding the frame, header included
+     * @param offset - where the frame starts in the buffer
+     * @return false if the frame cannot join the packet. The packet needs
+     * to be taken out with pack() first.
+     */
+/**
+     *作成中のパケットにフレームを追加します
+     *@パラメータフレーム - ヘッダを含むフレームを保持するバッファ
+     *@パラメータオフセット - バッファ内のフレームの開始位置
+     *@戻り値フレームがパケットに加われない場合はfalse。まずpack()でパケットを
+     *取り出す必要があります。
+     */
+    public boolean add(byte[] frame, int offset) {
+        if (!canAdd(frame, offset))
+            return false;
+
+        int len = FrameFormat.getPayloadLength(frame, offset);
+        if (mCount == 0) {
+            mCodec = FrameFormat.getCodec(frame, offset);
+            mFlags = FrameFormat.getFlags(frame, offset);
+            mOrigin = FrameFormat.getOrigin(frame, offset);
+            mTtl = FrameFormat.getTtl(frame, offset);
+            mLevel = FrameFormat.getLevel(frame, offset);
+            mFirstSequence = FrameFormat.getSequence(frame, offset);
+            mFirstTimestamp = FrameFormat.getTimestamp(frame, offset);
+            mSamples = 0;
+        } else if (mCount == 1) {
+            mSamples = FrameFormat.getTimestamp(frame, offset) - mFirstTimestamp;
+        }
+        mLevel = Math.min(mLevel, FrameFormat.getLevel(frame, offset));
+
+        System.arraycopy(frame, FrameFormat.getPayloadOffset(frame, offset),
+                         mPayloads, mPayloadsLen, len);
+        mLengths[mCount++] = len;
+        mPayloadsLen += len;
+        return true;
+    }
+
+    /**
+     * Checks whether a frame can join the packet being built
+     * @param frame - the buffer holding the frame, header included
+     * @param offset - where the frame starts in the buffer
+     * @return true if add() would accept the frame
+     */
+/**
+     *フレームが作成中のパケットに加われるかどうかを調べます
+     *@パラメータフレーム - ヘッダを含むフレームを保持するバッファ
+     *@パラメータオフセット - バッファ内のフレームの開始位置
+     *@戻り値add()がフレームを受け入れる場合はtrue
+     */
+    public boolean canAdd(byte[] frame, int offset) {
+        int len = FrameFormat.getPayloadLength(frame, offset);
+        if (mCount == 0)
+            return FrameFormat.HEADER_LEN + len <= mMaxPacketLen;
+
+        int timestamp = FrameFormat.getTimestamp(frame, offset);
+        if (mCount == MAX_FRAMES || FrameFormat.getCodec(frame, offset) != mCodec ||
+                FrameFormat.getFlags(frame, offset) != mFlags ||
+                FrameFormat.getOrigin(frame, offset) != mOrigin ||
+                FrameFormat.getTtl(frame, offset) != mTtl ||
+                FrameFormat.getSequence(frame, offset) != ((mFirstSequence + mCount) & 0xFFFF))
+            return false;
+
+        // The frames need to have the same duration
+        int samples = mCount == 1 ? timestamp - mFirstTimestamp : mSamples;
+        if (samples <= 0 || samples > 0xFFFF || timestamp != mFirstTimestamp + mCount * samples)
+            return false;
+        return getPackedLength(mCount + 1, mPayloadsLen + len) <= mMaxPacketLen;
+    }
+
+    /**
+     * @return the number of frames in the packet being built
+     */
+/**
+     *@戻り値作成中のパケット内のフレーム数
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the timestamp of the first frame in the packet being built
+     */
+/**
+     *@戻り値作成中のパケット内の最初のフレームのタイムスタンプ
+     */
+    public int getFirstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    /**
+     * Writes the packet being built and starts a new one
+     * @param out - where to write the packet
+     * @param offset - where the packet starts in out
+     * @return the length of the packet, 0 if it held no frame
+     */
+/**
+     *作成中のパケットを書き込み、新しいパケットを開始します
+     *@パラメータout - パケットを書き込む場所
+     *@パラメータオフセット - out内のパケットの開始位置
+     *@戻り値パケットの長さ、フレームを保持していなかった場合は0
+     */
+    public int pack(byte[] out, int offset) {
+        if (mCount == 0)
+            return 0;
+
+        int len;
+        if (mCount == 1) {
+            len = FrameFormat.writeHeader(out, offset, mCodec, mFlags, mPayloadsLen,
+                                          mFirstSequence, mFirstTimestamp);
+            System.arraycopy(mPayloads, 0, out, offset + len, mPayloadsLen);
+            len += mPayloadsLen;
+        } else {
+            int payloadLen = getPackedLength(mCount, mPayloadsLen) - FrameFormat.HEADER_LEN;
+            int pos = offset + FrameFormat.writeHeader(out, offset, mCodec,
+                    mFlags | FrameFormat.FLAG_PACKED, payloadLen, mFirstSequence, mFirstTimestamp);
+            out[pos + COUNT_OFFSET] = (byte)mCount;
+            FrameFormat.writeShort(out, pos + SAMPLES_OFFSET, mSamples);
+            for (int i = 0; i < mCount; i++)
+                FrameFormat.writeShort(out, pos + LENGTHS_OFFSET + 2 * i, mLengths[i]);
+            pos += LENGTHS_OFFSET + 2 * mCount;
+            System.arraycopy(mPayloads, 0, out, pos, mPayloadsLen);
+            len = pos + mPayloadsLen - offset;
+        }
+        FrameFormat.setLevel(out, offset, mLevel);
+        FrameFormat.setOrigin(out, offset, mOrigin);
+        FrameFormat.setTtl(out, offset, mTtl);
+
+        mCount = 0;
+        mPayloadsLen = 0;
+        return len;
+    }
+
+    /**
+     * Gives the frames of a packet to a handler, one by one. A packet that is
+     * not packed is given as it is.
+     * @param packet - the buffer holding the packet
+     * @param offset - where the packet starts in the buffer
+     * @param length - the length of the packet
+     * @param handler - where to send the frames
+     * @throws IOException if the packet is malformed or the handler fails
+     */
+/**
+     *パケットのフレームを1つずつハンドラーに渡します。まとめられていない
+     *パケットはそのまま渡されます。
+     *@パラメータパケット - パケットを保持するバッファ
+     *@パラメータオフセット - バッファ内のパケットの開始位置
+     *@パラメータ長さ - パケットの長さ
+     *@パラメータハンドラー - フレームの送信先
+     *@例外パケットが不正な場合、またはハンドラーが失敗した場合はIOException
+     */
+    public void unpack(byte[] packet, int offset, int length, IReceiveHandler handler)
+            throws IOException {
+        int flags = FrameFormat.getFlags(packet, offset);
+        if ((flags & FrameFormat.FLAG_PACKED) == 0) {
+            handler.receiveFrame(packet, offset, length);
+            return;
+        }
+
+        int payload = FrameFormat.getPayloadOffset(packet, offset);
+        int end = payload + FrameFormat.getPayloadLength(packet, offset);
+        int count = packet[payload + COUNT_OFFSET] & 0xFF;
+        int samples = FrameFormat.readShort(packet, payload + SAMPLES_OFFSET);
+        int pos = payload + LENGTHS_OFFSET + 2 * count;
+        if (pos > end)
+            throw new IOException("Invalid packet");
+
+        int codec = FrameFormat.getCodec(packet, offset);
+        int sequence = FrameFormat.getSequence(packet, offset);
+        int timestamp = FrameFormat.getTimestamp(packet, offset);
+        int level = FrameFormat.getLevel(packet, offset);
+        int origin = FrameFormat.getOrigin(packet, offset);
+        int ttl = FrameFormat.getTtl(packet, offset);
+        flags &= ~FrameFormat.FLAG_PACKED;
+        for (int i = 0; i < count; i++) {
+            int len = FrameFormat.readShort(packet, payload + LENGTHS_OFFSET + 2 * i);
+            if (pos + len > end || FrameFormat.HEADER_LEN + len > mFrame.length)
+                throw new IOException("Invalid packet");
+            int headerLen = FrameFormat.writeHeader(mFrame, 0, codec, flags, len,
+                    (sequence + i) & 0xFFFF, timestamp + i * samples);
+            FrameFormat.setLevel(mFrame, 0, level);
+            FrameFormat.setOrigin(mFrame, 0, origin);
+            FrameFormat.setTtl(mFrame, 0, ttl);
+            System.arraycopy(packet, pos, mFrame, headerLen, len);
+            handler.receiveFrame(mFrame, 0, headerLen + len);
+            pos += len;
+        }
+    }
+
+    /**
+     * @return how many frames a packet holds
+     */
+/**
+     *@戻り値パケットが保持するフレーム数
+     */
+    public static int getFrameCount(byte[] packet, int offset) {
+        if ((FrameFormat.getFlags(packet, offset) & FrameFormat.FLAG_PACKED) == 0)
+            return 1;
+        return packet[FrameFormat.getPayloadOffset(packet, offset) + COUNT_OFFSET] & 0xFF;
+    }
+
+    private static int getPackedLength(int count, int payloadsLen) {
+        return FrameFormat.HEADER_LEN + LENGTHS_OFFSET + 2 * count + payloadsLen;
+    }
+}
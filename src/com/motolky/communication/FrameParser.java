@@ -0,0 +1,169 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+
+/**
+ * This class splits the byte stream received from a socket in frames.
+ * The socket is read directly in the buffer of the parser. Since every
+ * frame starts with a header that holds its length, a frame is found
+ * by reading its header only, without looking at its payload.
+ * A frame returned by the parser stays valid until the next read in its buffer.
+ */
+/**
+  *このクラスは、ソケットから受信したバイトストリームをフレームに分割します。
+  *ソケットはパーサのバッファに直接読み込まれます。各フレームは長さを保持する
+  *ヘッダで始まるので、フレームはペイロードを見ずにヘッダだけを読んで見つかります。
+  *パーサが返したフレームは、バッファへの次の読み込みまで有効です。
+  */
+public class FrameParser {
+    private final byte[] mBuffer;
+    private int mStart = 0;
+    private int mEnd = 0;
+    private int mFrameOffset = 0;
+    private int mFrameLength = 0;
+
+    /**
+     * Constructor
+     * @param capacity - the size of the buffer. It must hold at least the largest frame.
+     */
+/**
+     *コンストラクタ
+     *@パラメータ容量 - バッファのサイズ。最大のフレームを保持できる必要があります。
+     */
+    public FrameParser(int capacity) {
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * @return the buffer to read the socket into
+     */
+/**
+     *@戻り値ソケットを読み込むバッファ
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Makes room for a read and returns where the read data should be put.
+     * The bytes of an incomplete frame are moved to the beginning of the buffer.
+     * @return the offset in the buffer where to read
+     */
+/**
+     *読み込みのための空きを作り、読み込んだデータを置く場所を返します。
+     *不完全なフレームのバイトはバッファの先頭に移動されます。
+     *@戻り値読み込み先のバッファ内のオフセット
+     */
+    public int getWriteOffset() {
+        if (mStart == mEnd) {
+            mStart = 0;
+            mEnd = 0;
+        } else if (mStart > 0 && mEnd == mBuffer.length) {
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+            mEnd -= mStart;
+            mStart = 0;
+        }
+        return mEnd;
+    }
+
+    /**
+     * @return how many bytes can be read in the buffer at the write offset
+     */
+/**
+     *@戻り値書き込みオフセットでバッファに読み込めるバイト数
+     */
+    public int getFreeSpace() {
+        return mBuffer.length - mEnd;
+    }
+
+    /**
+     * Notifies the parser that data was read in its buffer
+     * @param bytes - how many bytes were read at the write offset
+     */
+/**
+     *バッファにデータが読み込まれたことをパーサに通知します
+     *@パラメータバイト - 書き込みオフセットに読み込まれたバイト数
+     */
+    public void written(int bytes) {
+        mEnd += bytes;
+    }
+
+    /**
+     * Looks for the next complete frame in the buffer
+     * @return true if a frame is available. Its position is given by
+     * getFrameOffset() and getFrameLength().
+     * @throws IOException if the stream does not contain valid frames
+     */
+/**
+     *バッファ内の次の完全なフレームを探します
+     *@戻り値フレームが利用可能な場合はtrue。その位置はgetFrameOffset()と
+     *getFrameLength()で与えられます。
+     *@例外ストリームに有効なフレームが含まれていない場合はIOException
+     */
+    public boolean nextFrame() throws IOException {
+        int available = mEnd - mStart;
+        if (available < FrameFormat.HEADER_LEN)
+            return false;
+
+        if (FrameFormat.getVersion(mBuffer, mStart) != FrameFormat.VERSION)
+            throw new IOException("Unsupported frame version " +
+                    FrameFormat.getVersion(mBuffer, mStart));
+        int headerLen = FrameFormat.getHeaderLength(mBuffer, mStart);
+        int frameLen = headerLen + FrameFormat.getPayloadLength(mBuffer, mStart);
+        if (headerLen < FrameFormat.HEADER_LEN || frameLen > mBuffer.length)
+            throw new IOException("Invalid frame header");
+        if (available < frameLen)
+            return false;
+
+        mFrameOffset = mStart;
+        mFrameLength = frameLen;
+        mStart += frameLen;
+        return true;
+    }
+
+    /**
+     * Drops the bytes of the incomplete frame at the end of the buffer
+     */
+    /**
+     *バッファの末尾にある不完全なフレームのバイトを破棄します
+     */
+    public void reset() {
+        mStart = 0;
+        mEnd = 0;
+    }
+
+    public int getFrameOffset() {
+        return mFrameOffset;
+    }
+
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+}
@@ -29,8 +29,6 @@ package com.motolky.communication;
 
 import java.io.IOException;
 
-import android.bluetooth.BluetoothSocket;
-
 import com.motolky.Peer;
 
 /**
@@ -40,5 +38,5 @@ import com.motolky.Peer;
  *下位レイヤからソケットを取得するためのインタフェース
  */
 public interface IConnectable {
-    BluetoothSocket getSocket(Peer peer, Device device) throws IOException;
+    IConnection getConnection(Peer peer, Device device) throws IOException;
 }
@@ -0,0 +1,68 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An open link with a remote device, whatever transport carries it.
+ *
+ * A stream link delivers the bytes in order and without losses, so a frame
+ * may arrive in several reads. A datagram link delivers every write as a
+ * whole in a single read, or not at all. Since a write always holds
+ * complete frames, a read of a datagram link never splits a frame.
+ */
+/**
+  *どのトランスポートで運ばれるかに関係なく、リモートデバイスとの開いたリンク。
+  *ストリームリンクはバイトを順番に損失なく配送するので、フレームは複数の読み込みに
+  *分かれて届くことがあります。データグラムリンクは各書き込みを1回の読み込みで
+  *まとめて配送するか、まったく配送しません。書き込みは常に完全なフレームを保持するので、
+  *データグラムリンクの読み込みがフレームを分割することはありません。
+  */
+public interface IConnection {
+    InputStream getInputStream() throws IOException;
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return true if the link carries datagrams instead of a byte stream
+     */
+/**
+     *@戻り値リンクがバイトストリームの代わりにデータグラムを運ぶ場合はtrue
+     */
+    boolean isDatagram();
+
+    /**
+     * Closes the link. A read or a write blocked on it throws an IOException.
+     */
+/**
+     *リンクを閉じます。ブロックされている読み込みまたは書き込みはIOExceptionをスローします。
+     */
+    void close() throws IOException;
+}
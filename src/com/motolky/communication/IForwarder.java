@@ -0,0 +1,67 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+
+/**
+ * An interface for the objects that forward the packets received on a link
+ * to the other links.
+ */
+/**
+  *リンクで受信したパケットを他のリンクに転送するオブジェクトのためのインタフェース。
+  */
+public interface IForwarder {
+    public void addLink(ISendHandler link);
+
+    public void removeLink(ISendHandler link);
+
+    /**
+     * Forwards a packet received on a link
+     * @param packet - the buffer holding the packet
+     * @param offset - where the packet starts in the buffer
+     * @param length - the length of the packet
+     * @param from - the link the packet came on
+     * @return true if the packet should also be played by the receive
+     * handler of the link it came on
+     * @throws IOException if the packet is not valid
+     */
+/**
+     *リンクで受信したパケットを転送します
+     *@パラメータパケット - パケットを保持するバッファ
+     *@パラメータオフセット - バッファ内のパケットの開始位置
+     *@パラメータ長さ - パケットの長さ
+     *@パラメータfrom - パケットが届いたリンク
+     *@戻り値パケットが届いたリンクの受信ハンドラーでも再生すべき場合はtrue
+     *@例外パケットが有効でない場合はIOException
+     */
+    public boolean forward(byte[] packet, int offset, int length, ISendHandler from)
+            throws IOException;
+
+    public void exit();
+}
@@ -30,12 +30,16 @@ package com.motolky.communication;
 import java.io.IOException;
 
 /**
- * An interface for receiving data
+ * An interface for receiving data. The data is received one frame at a time.
+ * The frame, header included, is found in the buffer between offset
+ * and offset + length. See FrameFormat for its layout.
  */
 /**
- *データを受信するインターフェース
- */
+  *データを受信するインターフェース。データは一度に1フレームずつ受信されます。
+  *ヘッダを含むフレームは、バッファのoffsetからoffset + lengthの間にあります。
+  *そのレイアウトについてはFrameFormatを参照してください。
+  */
 public interface IReceiveHandler {
 
-    public void receiveData(byte[] buffer, int bytes) throws IOException;
+    public void receiveFrame(byte[] buffer, int offset, int length) throws IOException;
 }
@@ -35,4 +35,46 @@ package com.motolky.communication;
  */
 public interface ISendHandler {
     public void sendData(byte[] buffer, int bytes);
+
+    /**
+     * Sends data along with a low bitrate copy of the data sent before it,
+     * which the link may add to protect it from losses
+     * @param buffer - where the data is
+     * @param bytes - how many bytes of data to send from the buffer
+     * @param redundant - the data sent before, in a lower bitrate, or null
+     * @param redundantBytes - how many bytes of redundant data there are
+     */
+/**
+     *前に送信したデータの低ビットレートのコピーと一緒にデータを送信します。
+     *リンクは損失から守るためにこれを追加することがあります
+     *@パラメータバッファ - データがある場所
+     *@パラメータバイト - バッファから送信するデータのバイト数
+     *@パラメータredundant - 前に送信されたデータの低ビットレート版、またはnull
+     *@パラメータredundantBytes - 冗長データのバイト数
+     */
+    public void sendData(byte[] buffer, int bytes, byte[] redundant, int redundantBytes);
+
+    /**
+     * Chooses the simulcast layer of the next data to send
+     * @param layerRates - the bitrate of every layer, in bytes per second
+     * @param layers - the number of layers
+     * @return the layer, 0 being the best quality
+     */
+/**
+     *次に送信するデータのサイマルキャストレイヤーを選択します
+     *@パラメータlayerRates - 各レイヤーのビットレート（バイト毎秒）
+     *@パラメータレイヤー - レイヤーの数
+     *@戻り値レイヤー、0が最高品質
+     */
+    public int selectLayer(int[] layerRates, int layers);
+
+    /**
+     * @return how many steps the quality of the layer sent on this link
+     * should be lowered, 0 if the link keeps up with it
+     */
+/**
+     *@戻り値このリンクで送信するレイヤーの品質を何段階下げるべきか、
+     *リンクが追いついている場合は0
+     */
+    public int getQualityStep();
 }
@@ -0,0 +1,77 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+
+/**
+ * The way the links between devices are created. The application talks
+ * over Bluetooth (see BluetoothTransport). The TCP and the UDP transports
+ * let a group run between plain Java processes, for example on the loopback
+ * interface of a single machine.
+ *
+ * Every pair of devices has its own link. The device given to the transport
+ * identifies that link: the client connects to it and the server listens
+ * for it.
+ */
+/**
+  *デバイス間のリンクを作成する方法。アプリケーションはBluetoothで通信します
+  *（BluetoothTransportを参照）。TCPとUDPのトランスポートにより、グループを
+  *通常のJavaプロセスの間で、例えば1台のマシンのループバックインタフェース上で実行できます。
+  *デバイスの各ペアは独自のリンクを持ちます。トランスポートに与えられたデバイスは
+  *そのリンクを識別します。クライアントはそれに接続し、サーバはそれを待ち受けます。
+  */
+public interface ITransport {
+    /**
+     * Opens a link with the given device
+     * @param device - the remote device
+     * @return the open link
+     * @throws IOException if the device could not be reached
+     */
+/**
+     *指定されたデバイスとのリンクを開きます
+     *@パラメータデバイス - リモートデバイス
+     *@戻り値開いたリンク
+     *@例外デバイスに到達できなかった場合はIOException
+     */
+    IConnection connect(Device device) throws IOException;
+
+    /**
+     * Starts listening for the links opened by the given device
+     * @param device - the remote device
+     * @return the object that accepts the links
+     * @throws IOException if the local device cannot listen
+     */
+/**
+     *指定されたデバイスが開くリンクの待ち受けを開始します
+     *@パラメータデバイス - リモートデバイス
+     *@戻り値リンクを受け入れるオブジェクト
+     *@例外ローカルデバイスが待ち受けできない場合はIOException
+     */
+    IAcceptor listen(Device device) throws IOException;
+}
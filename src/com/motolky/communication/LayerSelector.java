@@ -0,0 +1,120 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import com.motolky.Common;
+
+/**
+ * This class chooses the simulcast layer sent on a link. A link starts on
+ * the best layer. It moves to a lower bitrate as soon as its send queue
+ * backs up, drops data or its throughput falls below the bitrate of the
+ * layer. It moves back up one layer at a time, after the link stayed
+ * clear for Common.LAYER_UPGRADE_DELAY miliseconds and only if its
+ * throughput leaves room for the better layer.
+ *
+ * The layer only changes between two buffers, which always hold whole
+ * frames, so the receiver does not notice the switch.
+ */
+/**
+  *このクラスは、リンクで送信するサイマルキャストのレイヤーを選択します。リンクは
+  *最良のレイヤーで開始します。送信キューが詰まるか、データを捨てるか、スループットが
+  *レイヤーのビットレートを下回るとすぐに、低いビットレートに移ります。リンクが
+  *Common.LAYER_UPGRADE_DELAYミリ秒の間問題なく、スループットに余裕がある場合にだけ、
+  *1レイヤーずつ戻ります。
+  *レイヤーは常にフレーム全体を保持する2つのバッファの間でしか変わらないので、
+  *受信側は切り替えに気付きません。
+  */
+public class LayerSelector {
+    // The throughput needs to exceed the bitrate of a better layer by this factor
+    private static final float UPGRADE_HEADROOM = 1.5f;
+
+    private int mLayer = 0;
+    private long mLastChange = 0;
+    private int mLastDropped = 0;
+    private int mSwitches = 0;
+
+    /**
+     * Chooses the layer of the next buffer
+     * @param layerRates - the bitrate of every layer, in bytes per second
+     * @param layers - the number of layers
+     * @param queue - the send queue of the link
+     * @param now - the current time, in miliseconds
+     * @return the layer, 0 being the best
+     */
+/**
+     *次のバッファのレイヤーを選択します
+     *@パラメータlayerRates - 各レイヤーのビットレート（バイト毎秒）
+     *@パラメータレイヤー - レイヤーの数
+     *@パラメータキュー - リンクの送信キュー
+     *@パラメータnow - 現在時刻（ミリ秒）
+     *@戻り値レイヤー、0が最良
+     */
+    public int select(int[] layerRates, int layers, SendQueue queue, long now) {
+        if (mLayer >= layers)
+            mLayer = layers - 1;
+
+        int depth = queue.getDepth();
+        int dropped = queue.getDropped();
+        float throughput = queue.getThroughput();
+        boolean congested = depth > queue.getCapacity() / 2 || dropped > mLastDropped ||
+                (throughput > 0 && throughput < layerRates[mLayer]);
+        mLastDropped = dropped;
+
+        if (congested) {
+            if (mLayer < layers - 1)
+                change(mLayer + 1, now);
+            else
+                mLastChange = now;
+        } else if (mLayer > 0 && depth == 0 &&
+                now - mLastChange >= Common.LAYER_UPGRADE_DELAY &&
+                (throughput == 0 || throughput >= layerRates[mLayer - 1] * UPGRADE_HEADROOM)) {
+            change(mLayer - 1, now);
+        }
+        return mLayer;
+    }
+
+    public int getLayer() {
+        return mLayer;
+    }
+
+    /**
+     * @return how many times the layer changed
+     */
+/**
+     *@戻り値レイヤーが変わった回数
+     */
+    public int getSwitches() {
+        return mSwitches;
+    }
+
+    private void change(int layer, long now) {
+        mLayer = layer;
+        mLastChange = now;
+        mSwitches++;
+    }
+}
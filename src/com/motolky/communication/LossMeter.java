@@ -0,0 +1,149 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+/**
+ * This class counts the frames received on a link and the frames lost on
+ * it, from their sequence numbers, as in RFC 3550. It is given every packet
+ * that arrives, before the packet is unpacked or forwarded, and before the
+ * lost packets are rebuilt (see FecDecoder). The fraction
+ * lost since the previous report is sent back to the peer in feedback
+ * frames, such that it can lower its bitrate.
+ *
+ * A link from a relay carries the frames of several origins, each with its
+ * own sequence numbers, so they are followed for every origin apart.
+ */
+/**
+  *このクラスは、リンクで受信したフレームと失われたフレームを、RFC 3550と同様に
+  *シーケンス番号から数えます。フレームの宛先である受信ハンドラーの前に置かれます。
+  *前回の報告以降に失われた割合はフィードバックフレームでピアに返され、ピアは
+  *ビットレートを下げることができます。
+  *リレーからのリンクは、それぞれ独自のシーケンス番号を持つ複数のオリジンのフレームを
+  *運ぶので、オリジンごとに別々に追跡されます。
+  */
+public class LossMeter {
+    public static final int FEEDBACK_LEN = FrameFormat.HEADER_LEN + 1;
+
+    // The highest sequence number received from every origin
+    private final int[] mHighestSeq = new int[FrameFormat.MAX_ORIGINS];
+    private final boolean[] mStarted = new boolean[FrameFormat.MAX_ORIGINS];
+    // How many frames should have arrived, from all the origins
+    private int mExpected = 0;
+    private int mReceived = 0;
+    private int mExpectedPrior = 0;
+    private int mReceivedPrior = 0;
+
+    /**
+     * Counts the frames of a packet
+     * @param packet - the buffer holding the packet
+     * @param offset - where the packet starts in the buffer
+     */
+/**
+     *パケットのフレームを数えます
+     *@パラメータパケット - パケットを保持するバッファ
+     *@パラメータオフセット - バッファ内のパケットの開始位置
+     */
+    public void count(byte[] packet, int offset) {
+        int origin = FrameFormat.getOrigin(packet, offset);
+        int frames = FramePacker.getFrameCount(packet, offset);
+        int last = (FrameFormat.getSequence(packet, offset) + frames - 1) & 0xFFFF;
+        if (!mStarted[origin]) {
+            mStarted[origin] = true;
+            mHighestSeq[origin] = last;
+            mExpected += frames;
+        } else {
+            int distance = (short)(last - mHighestSeq[origin]);
+            if (distance > 0) {
+                mHighestSeq[origin] = last;
+                mExpected += distance;
+            }
+        }
+        mReceived += frames;
+    }
+
+    /**
+     * @return true if a frame was received since the previous report
+     */
+/**
+     *@戻り値前回の報告以降にフレームを受信した場合はtrue
+     */
+    public boolean hasNews() {
+        return mReceived > mReceivedPrior;
+    }
+
+    /**
+     * Writes a feedback frame holding the fraction of the frames lost since
+     * the previous feedback frame
+     * @param buffer - where to write the frame; it needs FEEDBACK_LEN bytes
+     * @return the length of the frame
+     */
+/**
+     *前回のフィードバックフレーム以降に失われたフレームの割合を保持する
+     *フィードバックフレームを書き込みます
+     *@パラメータバッファ - フレームの書き込み先。FEEDBACK_LENバイトが必要です
+     *@戻り値フレームの長さ
+     */
+    public int writeFeedback(byte[] buffer) {
+        int len = FrameFormat.writeHeader(buffer, 0, 0, FrameFormat.FLAG_FEEDBACK, 1, 0, 0);
+        buffer[len] = (byte)getFractionLost();
+        return len + 1;
+    }
+
+    /**
+     * @return the fraction of the frames lost reported by a feedback frame,
+     * out of 256
+     */
+/**
+     *@戻り値フィードバックフレームが報告する失われたフレームの割合（256分率）
+     */
+    public static int readFeedback(byte[] buffer, int offset) {
+        return buffer[FrameFormat.getPayloadOffset(buffer, offset)] & 0xFF;
+    }
+
+    /**
+     * @return the total number of frames lost
+     */
+/**
+     *@戻り値失われたフレームの総数
+     */
+    public int getLost() {
+        return Math.max(0, mExpected - mReceived);
+    }
+
+    private int getFractionLost() {
+        int expectedInterval = mExpected - mExpectedPrior;
+        int receivedInterval = mReceived - mReceivedPrior;
+        mExpectedPrior = mExpected;
+        mReceivedPrior = mReceived;
+
+        int lost = expectedInterval - receivedInterval;
+        if (expectedInterval <= 0 || lost <= 0)
+            return 0;
+        return Math.min(255, (lost << 8) / expectedInterval);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * In multi-hop mode the members of a mesh forward the packets they receive
+ * to their other links, such that members out of range of each other still
+ * hear each other through the members in between.
+ *
+ * A packet is handled only the first time it arrives; the copies of it that
+ * come on the other links are dropped by a DuplicateFilter shared by all the
+ * links. A packet is forwarded as it is, with its time to live lowered by
+ * one, and not at all when the time to live reached 0. So a frame goes at
+ * most Common.FORWARD_HOPS + 1 hops away from its origin, and a loop of
+ * links does not make it go round.
+ *
+ * The same origin may be heard on any link, so the packets are not played by
+ * the receive handlers of the links: all of them are given to a single
+ * handler, which keeps a player per origin. This is done under the lock of
+ * the forwarder, such that the players get their frames from one thread at
+ * a time.
+ */
+/**
+  *マルチホップモードでは、メッシュのメンバーは受信したパケットを他のリンクに転送し、
+  *互いに範囲外のメンバー同士も間のメンバーを通じて聞こえるようにします。
+  *パケットは最初に届いたときだけ処理され、他のリンクで届くそのコピーはすべての
+  *リンクで共有されるDuplicateFilterによって破棄されます。パケットはそのまま、
+  *生存時間を1減らして転送され、生存時間が0になったパケットは転送されません。
+  *そのためフレームはオリジンから最大Common.FORWARD_HOPS + 1ホップまで届き、
+  *リンクのループで回り続けることはありません。
+  *同じオリジンがどのリンクでも聞こえる可能性があるので、パケットはリンクの
+  *受信ハンドラーでは再生されず、オリジンごとにプレーヤーを持つ単一のハンドラーに
+  *渡されます。これはフォワーダーのロックの下で行われるので、プレーヤーは一度に
+  *1つのスレッドからフレームを受け取ります。
+  */
+public class MeshForwarder implements IForwarder {
+    private final Lock mLock = new ReentrantLock();
+    private final List<ISendHandler> mLinks = new ArrayList<ISendHandler>();
+    private final DuplicateFilter mFilter = new DuplicateFilter();
+    private final FramePacker mUnpacker = new FramePacker(Common.MAX_PACKET_LEN);
+    private final IReceiveHandler mReceiveHandler;
+    private final byte[] mPacket = new byte[Common.MAX_PACKET_LEN];
+    private long mForwarded = 0;
+    private long mDuplicates = 0;
+
+    /**
+     * Constructor
+     * @param receiveHandler - the handler that plays the packets of all the links
+     */
+/**
+     *コンストラクタ
+     *@パラメータreceiveHandler - すべてのリンクのパケットを再生するハンドラー
+     */
+    public MeshForwarder(IReceiveHandler receiveHandler) {
+        mReceiveHandler = receiveHandler;
+    }
+
+    @Override
+    public void addLink(ISendHandler link) {
+        mLock.lock();
+        mLinks.add(link);
+        mLock.unlock();
+    }
+
+    @Override
+    public void removeLink(ISendHandler link) {
+        mLock.lock();
+        mLinks.remove(link);
+        mLock.unlock();
+    }
+
+    /**
+     * Plays a packet and forwards it to the other links, unless it was seen before
+     * @return always false: the packet is played here, not by the link
+     */
+/**
+     *以前に見られていない限り、パケットを再生し他のリンクに転送します
+     *@戻り値常にfalse。パケットはリンクではなくここで再生されます
+     */
+    @Override
+    public boolean forward(byte[] packet, int offset, int length, ISendHandler from)
+            throws IOException {
+        int origin = FrameFormat.getOrigin(packet, offset);
+        int frames = FramePacker.getFrameCount(packet, offset);
+
+        mLock.lock();
+        try {
+            // Our own frames come back through the other members
+            if (origin == Common.LOCAL_ORIGIN ||
+                    !mFilter.accept(origin, FrameFormat.getSequence(packet, offset), frames)) {
+                mDuplicates += frames;
+                return false;
+            }
+
+            int ttl = FrameFormat.getTtl(packet, offset);
+            if (ttl > 0 && length <= mPacket.length && mLinks.size() > 1) {
+                System.arraycopy(packet, offset, mPacket, 0, length);
+                FrameFormat.setTtl(mPacket, 0, ttl - 1);
+                for (ISendHandler link : mLinks)
+                    if (link != from)
+                        link.sendData(mPacket, length);
+                mForwarded += frames;
+            }
+
+            mUnpacker.unpack(packet, offset, length, mReceiveHandler);
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void exit() {
+        Log.d(Common.TAG, "Mesh forwarder: forwarded " + mForwarded + " frames, dropped " +
+                mDuplicates + " copies");
+    }
+}
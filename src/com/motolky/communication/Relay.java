@@ -0,0 +1,244 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * In relay mode the hub of the group forwards the packets of every member to
+ * all the others as they are, instead of mixing them, and every member mixes
+ * what it gets. The payloads are never decoded here, so the work of the
+ * relay grows with the number of packets, not with the codecs.
+ *
+ * Only the Common.RELAY_TALKERS loudest talkers are forwarded. The loudness
+ * of a talker is followed from the audio level in the header of its packets.
+ * A talker takes the place of a selected one when that one went quiet, or
+ * when it is louder by SWITCH_MARGIN dB, such that the selection does not
+ * flap between talkers of about the same level. A comfort noise packet ends
+ * the selection of its talker; it is still forwarded, such that the players
+ * of the talker fill the silence with noise. The sound of the relay itself
+ * does not go through here: it is sent to every member.
+ *
+ * The frames of a talker that is not forwarded are like the frames a sender
+ * does not send while its user is silent. So the relay numbers again the
+ * frames it forwards on every link, for every origin, and the receivers only
+ * count as lost the frames that were really lost.
+ */
+/**
+  *リレーモードでは、グループのハブは各メンバーのパケットをミックスせずにそのまま
+  *他のすべてのメンバーに転送し、各メンバーが受け取ったものをミックスします。
+  *ここでペイロードがデコードされることはないので、リレーの処理量はコーデックではなく
+  *パケット数に比例します。
+  *Common.RELAY_TALKERS人の最も大きい話者だけが転送されます。話者の大きさは
+  *パケットのヘッダの音声レベルから追跡されます。選ばれている話者が静かになったとき、
+  *またはSWITCH_MARGIN dB以上大きいときに、話者はその話者と入れ替わるので、
+  *選択が同程度のレベルの話者の間で揺れることはありません。コンフォートノイズの
+  *パケットはその話者の選択を終了しますが、プレーヤーが無音をノイズで埋めるように
+  *転送はされます。リレー自身の音声はここを通らず、すべてのメンバーに送信されます。
+  *転送されない話者のフレームは、ユーザーが無音の間に送信者が送らないフレームと
+  *同じです。そのためリレーは、各リンクでオリジンごとに転送するフレームの番号を
+  *振り直し、受信者は本当に失われたフレームだけを失われたものとして数えます。
+  */
+public class Relay implements IForwarder {
+    // A selected talker whose packets stop for this long is not selected anymore
+    private static final int ACTIVE_TIMEOUT = 300; // miliseconds
+    private static final int SWITCH_MARGIN = 3;    // dB
+    // The weight of a new packet in the level of a talker
+    private static final float LEVEL_GAIN = 1.0f / 4;
+
+    private final Lock mLock = new ReentrantLock();
+    private final List<Output> mOutputs = new ArrayList<Output>();
+    private final float[] mLevels = new float[FrameFormat.MAX_ORIGINS];
+    private final long[] mLastHeard = new long[FrameFormat.MAX_ORIGINS];
+    private final boolean[] mSelected = new boolean[FrameFormat.MAX_ORIGINS];
+    private int mSelectedCount = 0;
+    private final byte[] mPacket = new byte[Common.MAX_PACKET_LEN];
+    private long mForwarded = 0;
+    private long mDropped = 0;
+    private int mSwitches = 0;
+
+    public Relay() {
+        for (int i = 0; i < FrameFormat.MAX_ORIGINS; i++)
+            mLevels[i] = FrameFormat.LEVEL_SILENT;
+    }
+
+    /**
+     * Adds a link to forward the packets on
+     * @param link - the link with a member
+     */
+/**
+     *パケットを転送するリンクを追加します
+     *@パラメータリンク - メンバーとのリンク
+     */
+    @Override
+    public void addLink(ISendHandler link) {
+        mLock.lock();
+        mOutputs.add(new Output(link));
+        mLock.unlock();
+    }
+
+    @Override
+    public void removeLink(ISendHandler link) {
+        mLock.lock();
+        for (int i = 0; i < mOutputs.size(); i++)
+            if (mOutputs.get(i).mLink == link) {
+                mOutputs.remove(i);
+                break;
+            }
+        mLock.unlock();
+    }
+
+    /**
+     * Forwards a packet received from a member to all the other members, if
+     * its talker is selected
+     * @param packet - the buffer holding the packet
+     * @param offset - where the packet starts in the buffer
+     * @param length - the length of the packet
+     * @param from - the link the packet came on
+     * @return true if the packet was forwarded. Only those need to be played
+     * by the relay itself.
+     */
+/**
+     *話者が選ばれている場合、メンバーから受信したパケットを他のすべてのメンバーに転送します
+     *@パラメータパケット - パケットを保持するバッファ
+     *@パラメータオフセット - バッファ内のパケットの開始位置
+     *@パラメータ長さ - パケットの長さ
+     *@パラメータfrom - パケットが届いたリンク
+     *@戻り値パケットが転送された場合はtrue。リレー自身が再生する必要があるのは
+     *それらだけです。
+     */
+    @Override
+    public boolean forward(byte[] packet, int offset, int length, ISendHandler from) {
+        int origin = FrameFormat.getOrigin(packet, offset);
+        int frames = FramePacker.getFrameCount(packet, offset);
+        long now = System.currentTimeMillis();
+
+        mLock.lock();
+        try {
+            if ((FrameFormat.getFlags(packet, offset) & FrameFormat.FLAG_COMFORT_NOISE) != 0) {
+                // The talker went quiet
+                mLevels[origin] = FrameFormat.LEVEL_SILENT;
+                if (!mSelected[origin])
+                    return false;
+                mSelected[origin] = false;
+                mSelectedCount--;
+            } else {
+                // A talker that starts again starts from the level of its packet
+                int level = FrameFormat.getLevel(packet, offset);
+                if (now - mLastHeard[origin] > ACTIVE_TIMEOUT)
+                    mLevels[origin] = level;
+                else
+                    mLevels[origin] += (level - mLevels[origin]) * LEVEL_GAIN;
+                mLastHeard[origin] = now;
+                if (!mSelected[origin] && !select(origin, now)) {
+                    mDropped += frames;
+                    return false;
+                }
+            }
+
+            if (length > mPacket.length)
+                return true;
+            System.arraycopy(packet, offset, mPacket, 0, length);
+            for (Output output : mOutputs) {
+                if (output.mLink == from)
+                    continue;
+                int sequence = output.mSequences[origin];
+                output.mSequences[origin] = (sequence + frames) & 0xFFFF;
+                FrameFormat.setSequence(mPacket, 0, sequence);
+                output.mLink.sendData(mPacket, length);
+            }
+            mForwarded += frames;
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Tries to select a talker that is not selected
+     * @return true if the talker was selected
+     */
+/**
+     *選ばれていない話者を選ぼうとします
+     *@戻り値話者が選ばれた場合はtrue
+     */
+    private boolean select(int origin, long now) {
+        // Look for the selected talker to replace: a quiet one, or else the weakest
+        int weakest = -1;
+        for (int i = 0; i < FrameFormat.MAX_ORIGINS && mSelectedCount > 0; i++) {
+            if (!mSelected[i])
+                continue;
+            if (now - mLastHeard[i] > ACTIVE_TIMEOUT) {
+                mSelected[i] = false;
+                mSelectedCount--;
+            } else if (weakest < 0 || mLevels[i] > mLevels[weakest]) {
+                weakest = i;
+            }
+        }
+
+        if (mSelectedCount >= Math.max(1, Common.RELAY_TALKERS)) {
+            if (mLevels[origin] + SWITCH_MARGIN > mLevels[weakest])
+                return false;
+            mSelected[weakest] = false;
+            mSelectedCount--;
+            mSwitches++;
+        }
+        mSelected[origin] = true;
+        mSelectedCount++;
+        return true;
+    }
+
+    @Override
+    public void exit() {
+        Log.d(Common.TAG, "Relay: forwarded " + mForwarded + " frames, dropped " + mDropped +
+                ", talker switches " + mSwitches);
+    }
+
+    /**
+     * A link the packets are forwarded on, with the next sequence number of
+     * every origin on it
+     */
+/**
+     *パケットが転送されるリンクと、その上の各オリジンの次のシーケンス番号
+     */
+    private static class Output {
+        private final ISendHandler mLink;
+        private final int[] mSequences = new int[FrameFormat.MAX_ORIGINS];
+
+        public Output(ISendHandler link) {
+            mLink = link;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a bounded queue of outgoing data. The recording thread puts
+ * data in it without ever waiting, and a writer thread takes the data out and
+ * writes it on the socket. When the queue is full, either the oldest or the
+ * newest data is dropped, such that a slow link only loses its own audio.
+ *
+ * The slots of the queue are allocated once, in the constructor.
+ */
+/**
+  *このクラスは、送信データの有界キューです。録音スレッドは待つことなくデータを
+  *入れ、書き込みスレッドがデータを取り出してソケットに書き込みます。キューが
+  *いっぱいのときは、最も古いデータか最も新しいデータが捨てられるので、遅い
+  *リンクは自分のオーディオだけを失います。
+  *キューのスロットはコンストラクタで一度だけ割り当てられます。
+  */
+public class SendQueue {
+    // The weight of a new write in the throughput estimation
+    private static final float THROUGHPUT_GAIN = 1.0f / 16;
+    // A write shorter than this is too short to be timed alone
+    private static final long MIN_TIMED_NANOS = 1000000;
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+    private final boolean mDropOldest;
+    private int mFirst = 0;
+    private int mCount = 0;
+    private boolean mClosed = false;
+
+    // The statistics are written under the lock, but read without it by the
+    // threads that adapt the bitrate to the link
+    private volatile int mQueued = 0;
+    private volatile int mDropped = 0;
+    private volatile int mSent = 0;
+    // How fast the socket takes the data, in bytes per second of writing
+    private volatile float mThroughput = 0;
+    // How long a write on the socket takes, in miliseconds
+    private volatile float mWriteLatency = 0;
+    // The short writes not counted in the throughput yet
+    private int mShortBytes = 0;
+    private long mShortNanos = 0;
+
+    /**
+     * Constructor
+     * @param capacity - how many buffers the queue holds
+     * @param maxLen - the maximum length of a buffer
+     * @param dropOldest - when the queue is full, drop the oldest buffer if
+     *             true or the new buffer if false
+     */
+/**
+     *コンストラクタ
+     *@パラメータ容量 - キューが保持するバッファの数
+     *@パラメータmaxLen - バッファの最大長
+     *@パラメータdropOldest - キューがいっぱいのとき、trueなら最も古いバッファを、
+     *falseなら新しいバッファを捨てます
+     */
+    public SendQueue(int capacity, int maxLen, boolean dropOldest) {
+        mSlots = new byte[capacity][maxLen];
+        mLengths = new int[capacity];
+        mDropOldest = dropOldest;
+    }
+
+    /**
+     * Puts a buffer in the queue. It never blocks.
+     * @param data - the data to send
+     * @param bytes - how many bytes of data to send
+     * @return true if the data was queued
+     */
+/**
+     *バッファをキューに入れます。決してブロックしません。
+     *@パラメータデータ - 送信するデータ
+     *@パラメータバイト - 送信するデータのバイト数
+     *@戻り値データがキューに入れられた場合はtrue
+     */
+    public boolean offer(byte[] data, int bytes) {
+        mLock.lock();
+        try {
+            if (mClosed || bytes > mSlots[0].length) {
+                mDropped++;
+                return false;
+            }
+            if (mCount == mSlots.length) {
+                mDropped++;
+                if (!mDropOldest)
+                    return false;
+                mFirst = (mFirst + 1) % mSlots.length;
+                mCount--;
+            }
+
+            int index = (mFirst + mCount) % mSlots.length;
+            System.arraycopy(data, 0, mSlots[index], 0, bytes);
+            mLengths[index] = bytes;
+            mCount++;
+            mQueued++;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest buffer out of the queue. It blocks while the queue is empty.
+     * @param out - where to copy the buffer; it must hold maxLen bytes
+     * @return the number of bytes copied, -1 if the queue was closed
+     * @throws InterruptedException
+     */
+/**
+     *キューから最も古いバッファを取り出します。キューが空の間はブロックします。
+     *@パラメータout - バッファのコピー先。maxLenバイトを保持できる必要があります
+     *@戻り値コピーされたバイト数、キューが閉じられた場合は-1
+     *@例外InterruptedException
+     */
+    public int take(byte[] out) throws InterruptedException {
+        mLock.lock();
+        try {
+            while (mCount == 0 && !mClosed)
+                mNotEmpty.await();
+            if (mClosed)
+                return -1;
+
+            int bytes = mLengths[mFirst];
+            System.arraycopy(mSlots[mFirst], 0, out, 0, bytes);
+            mFirst = (mFirst + 1) % mSlots.length;
+            mCount--;
+            return bytes;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Notifies the queue that a buffer taken out of it was written on the socket
+     * @param bytes - the length of the buffer
+     * @param writeNanos - how long the write took
+     */
+/**
+     *キューから取り出したバッファがソケットに書き込まれたことを通知します
+     *@パラメータバイト - バッファの長さ
+     *@パラメータwriteNanos - 書き込みにかかった時間
+     */
+    public void sent(int bytes, long writeNanos) {
+        mLock.lock();
+        mSent++;
+        mWriteLatency += (writeNanos / 1e6f - mWriteLatency) * THROUGHPUT_GAIN;
+        // The short writes are added up until they last long enough to be
+        // timed, such that a fast link is not taken for a slow one
+        if (writeNanos < MIN_TIMED_NANOS) {
+            mShortBytes += bytes;
+            mShortNanos += writeNanos;
+            if (mShortNanos < MIN_TIMED_NANOS) {
+                mLock.unlock();
+                return;
+            }
+            bytes = mShortBytes;
+            writeNanos = mShortNanos;
+            mShortBytes = 0;
+            mShortNanos = 0;
+        }
+        float throughput = bytes * 1e9f / writeNanos;
+        if (mThroughput == 0)
+            mThroughput = throughput;
+        else
+            mThroughput += (throughput - mThroughput) * THROUGHPUT_GAIN;
+        mLock.unlock();
+    }
+
+    /**
+     * Closes the queue and wakes up the writer. The data left in it is dropped.
+     */
+/**
+     *キューを閉じ、書き込みスレッドを起こします。残っているデータは捨てられます。
+     */
+    public void close() {
+        mLock.lock();
+        mClosed = true;
+        mDropped += mCount;
+        mCount = 0;
+        mNotEmpty.signalAll();
+        mLock.unlock();
+    }
+
+    /**
+     * @return how many buffers wait in the queue
+     */
+/**
+     *@戻り値キューで待っているバッファの数
+     */
+    public int getDepth() {
+        mLock.lock();
+        int count = mCount;
+        mLock.unlock();
+        return count;
+    }
+
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return the estimated throughput of the socket, in bytes per second,
+     * 0 if nothing was written yet
+     */
+/**
+     *@戻り値ソケットの推定スループット（バイト毎秒）、まだ何も書き込まれていない場合は0
+     */
+    public float getThroughput() {
+        return mThroughput;
+    }
+
+    /**
+     * @return the smoothed duration of a write on the socket, in miliseconds
+     */
+/**
+     *@戻り値ソケットへの書き込みにかかる平滑化された時間（ミリ秒）
+     */
+    public float getWriteLatency() {
+        return mWriteLatency;
+    }
+
+    public int getMaxLength() {
+        return mSlots[0].length;
+    }
+
+    public int getQueued() {
+        return mQueued;
+    }
+
+    public int getDropped() {
+        return mDropped;
+    }
+
+    public int getSent() {
+        return mSent;
+    }
+}
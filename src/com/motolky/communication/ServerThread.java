@@ -28,11 +28,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.motolky.communication;
 
 import java.io.IOException;
-import java.util.UUID;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
 import com.motolky.Common;
@@ -55,18 +51,19 @@ import com.motolky.sound.RecordThread;
  */
 public class ServerThread extends Thread implements IConnectable {
 
-    private BluetoothAdapter mBtAdapter;
-    private boolean mExit = false;
-    private BluetoothServerSocket serverSocket = null;
+    private ITransport mTransport;
+    private volatile boolean mExit = false;
+    private volatile IAcceptor mAcceptor = null;
     private RecordThread mRecordThread = null;
     private Peer mPeer = null;
     private Device mRemoteDevice = null;
     private IConnectNotifiable mConnectNotifiable = null;
+    private IForwarder mForwarder = null;
 
     /**
      * Constructor
      * @param recordThread - the thread that is recording from the microphone
-     * @param bluetoothAdapter
+     * @param transport - the transport the connections are accepted on
      * @param remoteDevice - the device from which connections will be listened
      * @param connectNotifiable - object that will be notified when a connection
      *          was created or destroyed
@@ -74,21 +71,34 @@ public class ServerThread extends Thread implements IConnectable {
 /**
      *コンストラクタ
      *@パラメータrecordThread - マイクから録音されたスレッド
-     *@パラメータbluetoothAdapter
+     *@パラメータtransport - 接続を受け入れるトランスポート
      *@パラメータRemoteDeviceの - 接続が耳を傾けた元となるデバイス
      *@パラメータconnectNotifiable - 通知されたオブジェクトと、接続
      *作成または破壊された
      */
     public ServerThread(RecordThread recordThread,
-                        BluetoothAdapter bluetoothAdapter,
+                        ITransport transport,
                         Device remoteDevice,
                         IConnectNotifiable connectNotifiable) {
-        mBtAdapter = bluetoothAdapter;
+        mTransport = transport;
         mRemoteDevice = remoteDevice;
         mRecordThread = recordThread;
         mConnectNotifiable = connectNotifiable;
     }
 
+    /**
+     * Makes the peers created by the server go through a forwarder. Must be
+     * called before the thread starts.
+     * @param forwarder - the relay of the group, or the mesh forwarder
+     */
+/**
+     *サーバが作成するピアをフォワーダーに通します。スレッドの開始前に呼び出す必要があります。
+     *@パラメータフォワーダー - グループのリレー、またはメッシュフォワーダー
+     */
+    public void setForwarder(IForwarder forwarder) {
+        mForwarder = forwarder;
+    }
+
     /**
      * End the thread. Close the server socket and remove the peer if it exists.
      */
@@ -103,8 +113,9 @@ public class ServerThread extends Thread implements IConnectable {
         }
 
         try {
-            if (serverSocket != null)
-                serverSocket.close();
+            IAcceptor acceptor = mAcceptor;
+            if (acceptor != null)
+                acceptor.close();
         } catch (IOException ioe) {
             Log.d(Common.TAG, "Failed to close the server socket.");
         }
@@ -120,19 +131,23 @@ public class ServerThread extends Thread implements IConnectable {
      */
     @Override
     public void run() {
-        UUID uuid = mRemoteDevice.getUUID();
         while (!mExit) {
             try {
-                serverSocket = mBtAdapter.listenUsingRfcommWithServiceRecord(mBtAdapter.getName(), uuid);
+                mAcceptor = mTransport.listen(mRemoteDevice);
+                if (mExit) {
+                    mAcceptor.close();
+                    break;
+                }
 
-                BluetoothSocket socket = serverSocket.accept();
+                IConnection connection = mAcceptor.accept();
 
-                serverSocket.close();
+                mAcceptor.close();
 
                 Log.d(Common.TAG, "Accepted a connection.");
 
                 mPeer = new Peer(mRecordThread, this, mConnectNotifiable,
-                                mRemoteDevice, socket, false);
+                                mRemoteDevice, connection, false);
+                mPeer.setForwarder(mForwarder);
                 mPeer.start();
 
             } catch (IOException ioe) {
@@ -152,7 +167,7 @@ public class ServerThread extends Thread implements IConnectable {
      *他の接続を待ちます。 nullが返される理由です。
      */
     @Override
-    public BluetoothSocket getSocket(Peer peer, Device device) throws IOException {
+    public IConnection getConnection(Peer peer, Device device) throws IOException {
         return null;
     }
 }
@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * The transport over TCP sockets. The link with a device is identified by
+ * the address of the device: the client connects to it and the server
+ * listens on it. Nagle's algorithm is turned off, since the frames are
+ * small and must leave as soon as they are written.
+ */
+/**
+  *TCPソケット上のトランスポート。デバイスとのリンクはデバイスのアドレスで識別されます。
+  *クライアントはそれに接続し、サーバはそれで待ち受けます。フレームは小さく、
+  *書き込まれたらすぐに送出される必要があるので、Nagleアルゴリズムは無効にされます。
+  */
+public class TcpTransport implements ITransport {
+    public static final int CONNECT_TIMEOUT = 5000; // miliseconds
+
+    @Override
+    public IConnection connect(Device device) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(device.getAddress(), CONNECT_TIMEOUT);
+        } catch (IOException ioe) {
+            socket.close();
+            throw ioe;
+        }
+        return new TcpConnection(socket);
+    }
+
+    @Override
+    public IAcceptor listen(Device device) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket();
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(device.getAddress());
+        } catch (IOException ioe) {
+            serverSocket.close();
+            throw ioe;
+        }
+
+        return new IAcceptor() {
+            @Override
+            public IConnection accept() throws IOException {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                return new TcpConnection(socket);
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    private static class TcpConnection implements IConnection {
+        private final Socket mSocket;
+
+        public TcpConnection(Socket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public boolean isDatagram() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+}
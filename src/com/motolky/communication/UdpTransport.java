@@ -0,0 +1,194 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+
+/**
+ * The transport over UDP sockets. The link with a device is identified by
+ * the address of the device, on which the server listens.
+ *
+ * UDP has no connections, so a link is opened by a handshake: the client
+ * sends a one byte datagram to the address of the device, and the server
+ * answers it with a one byte datagram from a new socket that is used only by
+ * this link. Some systems do not deliver empty datagrams, so the handshake
+ * does not use them. The client then talks only to the address of that socket and
+ * the server keeps listening on the address of the device. Since nothing
+ * tells that a link was closed, a link on which nothing arrives for
+ * IDLE_TIMEOUT is considered broken.
+ *
+ * The frames lost by the network are not sent again: the players conceal
+ * them like the frames that arrive too late.
+ */
+/**
+  *UDPソケット上のトランスポート。デバイスとのリンクは、サーバが待ち受けるデバイスの
+  *アドレスで識別されます。
+  *UDPには接続がないので、リンクはハンドシェイクで開かれます。クライアントはデバイスの
+  *アドレスに1バイトのデータグラムを送信し、サーバはこのリンクだけが使う新しいソケットから
+  *1バイトのデータグラムで応答します。空のデータグラムを配送しないシステムがあるため、
+  *ハンドシェイクでは使用しません。その後、クライアントはそのソケットのアドレスとだけ通信し、
+  *サーバはデバイスのアドレスで待ち受けを続けます。リンクが閉じられたことを知らせるものは
+  *ないので、IDLE_TIMEOUTの間何も届かないリンクは切断されたとみなされます。
+  *ネットワークで失われたフレームは再送されません。プレーヤーは遅れて届いたフレームと
+  *同様にそれらを補間します。
+  */
+public class UdpTransport implements ITransport {
+    public static final int HANDSHAKE_TIMEOUT = 2000; // miliseconds
+    public static final int IDLE_TIMEOUT = 10000;     // miliseconds
+
+    @Override
+    public IConnection connect(Device device) throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            DatagramPacket packet = new DatagramPacket(new byte[1], 1, device.getAddress());
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            socket.send(packet);
+            socket.receive(packet);
+            socket.connect(packet.getSocketAddress());
+            socket.setSoTimeout(IDLE_TIMEOUT);
+        } catch (SocketTimeoutException ste) {
+            socket.close();
+            throw new IOException("No answer from " + device.getAddress());
+        } catch (IOException ioe) {
+            socket.close();
+            throw ioe;
+        }
+        return new UdpConnection(socket);
+    }
+
+    @Override
+    public IAcceptor listen(Device device) throws IOException {
+        final DatagramSocket serverSocket = new DatagramSocket(null);
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(device.getAddress());
+        } catch (IOException ioe) {
+            serverSocket.close();
+            throw ioe;
+        }
+
+        return new IAcceptor() {
+            @Override
+            public IConnection accept() throws IOException {
+                DatagramPacket packet = new DatagramPacket(new byte[1], 1);
+                serverSocket.receive(packet);
+
+                DatagramSocket socket = new DatagramSocket();
+                try {
+                    socket.connect(packet.getSocketAddress());
+                    packet.setLength(1);
+                    socket.send(packet);
+                    socket.setSoTimeout(IDLE_TIMEOUT);
+                } catch (IOException ioe) {
+                    socket.close();
+                    throw ioe;
+                }
+                return new UdpConnection(socket);
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    /**
+     * A link over a connected datagram socket. Every write is sent as a
+     * datagram and every read receives a datagram. There is a single reader
+     * and a single writer, so each of them reuses its packet.
+     */
+/**
+     *接続されたデータグラムソケット上のリンク。各書き込みはデータグラムとして送信され、
+     *各読み込みはデータグラムを受信します。読み手と書き手はそれぞれ1つなので、
+     *それぞれがパケットを再利用します。
+     */
+    private static class UdpConnection implements IConnection {
+        private final DatagramSocket mSocket;
+        private final InputStream mInputStream;
+        private final OutputStream mOutputStream;
+
+        public UdpConnection(DatagramSocket socket) {
+            mSocket = socket;
+            mInputStream = new InputStream() {
+                private final DatagramPacket mPacket = new DatagramPacket(new byte[0], 0);
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    mPacket.setData(buffer, offset, length);
+                    mSocket.receive(mPacket);
+                    return mPacket.getLength();
+                }
+
+                @Override
+                public int read() throws IOException {
+                    throw new UnsupportedOperationException("A datagram is read as a whole");
+                }
+            };
+            mOutputStream = new OutputStream() {
+                private final DatagramPacket mPacket = new DatagramPacket(new byte[0], 0);
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    mPacket.setData(buffer, offset, length);
+                    mSocket.send(mPacket);
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    throw new UnsupportedOperationException("A datagram is written as a whole");
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutputStream;
+        }
+
+        @Override
+        public boolean isDatagram() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            mSocket.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class implements the IMA ADPCM codec. Every sample is coded on 4 bits.
+ * Each frame starts with the state of the coder (the predicted sample on two
+ * bytes, big endian, the step index and a reserved byte), such that every
+ * frame can be decoded on its own and a lost frame does not affect the next ones.
+ */
+public class AdpcmCodec extends FallbackCodec
+{
+    private static final int STATE_LEN = 4;
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+        19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+        130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+        337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+        876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+        2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+        5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+        15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // The state of the encoder, kept from a frame to the next one
+    private int mPredicted = 0;
+    private int mIndex = 0;
+
+    public AdpcmCodec()
+    {
+        super();
+    }
+
+    /**
+     * Constructor
+     * @param sampleRate - the sample rate of the sound, in Hz
+     */
+    public AdpcmCodec(int sampleRate)
+    {
+        super(sampleRate);
+    }
+
+    @Override
+    public int getCodecId()
+    {
+        return CODEC_IMA_ADPCM;
+    }
+
+    @Override
+    public int getEncodedSize()
+    {
+        return STATE_LEN + (this.mFrameSize + 1) / 2;
+    }
+
+    @Override
+    protected void encodeFrame(short[] data, int offset, byte[] out, int outOffset)
+    {
+        int predicted = this.mPredicted;
+        int index = this.mIndex;
+        out[outOffset] = (byte)(predicted >> 8);
+        out[outOffset + 1] = (byte)predicted;
+        out[outOffset + 2] = (byte)index;
+        out[outOffset + 3] = 0;
+
+        int pos = outOffset + STATE_LEN;
+        for (int i = 0; i < this.mFrameSize; i++)
+        {
+            int step = STEP_TABLE[index];
+            int diff = data[offset + i] - predicted;
+            int code = 0;
+            if (diff < 0)
+            {
+                code = 8;
+                diff = -diff;
+            }
+
+            // Quantize the difference on 3 bits and compute the difference
+            // the decoder will see, exactly as the decoder does
+            int delta = step >> 3;
+            if (diff >= step)
+            {
+                code |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step)
+            {
+                code |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step)
+            {
+                code |= 1;
+                delta += step;
+            }
+
+            predicted += (code & 8) != 0 ? -delta : delta;
+            if (predicted > Short.MAX_VALUE)
+                predicted = Short.MAX_VALUE;
+            else if (predicted < Short.MIN_VALUE)
+                predicted = Short.MIN_VALUE;
+            index += INDEX_TABLE[code];
+            if (index < 0)
+                index = 0;
+            else if (index > 88)
+                index = 88;
+
+            if ((i & 1) == 0)
+                out[pos] = (byte)(code << 4);
+            else
+                out[pos++] |= code;
+        }
+
+        this.mPredicted = predicted;
+        this.mIndex = index;
+    }
+
+    @Override
+    protected void decodeFrame(byte[] data, int offset, short[] out, int outOffset)
+    {
+        int predicted = (short)(((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF));
+        int index = data[offset + 2] & 0xFF;
+        if (index > 88)
+            index = 88;
+
+        int pos = offset + STATE_LEN;
+        for (int i = 0; i < this.mFrameSize; i++)
+        {
+            int code;
+            if ((i & 1) == 0)
+                code = (data[pos] >> 4) & 0x0F;
+            else
+                code = data[pos++] & 0x0F;
+
+            int step = STEP_TABLE[index];
+            int delta = step >> 3;
+            if ((code & 4) != 0)
+                delta += step;
+            if ((code & 2) != 0)
+                delta += step >> 1;
+            if ((code & 1) != 0)
+                delta += step >> 2;
+
+            predicted += (code & 8) != 0 ? -delta : delta;
+            if (predicted > Short.MAX_VALUE)
+                predicted = Short.MAX_VALUE;
+            else if (predicted < Short.MIN_VALUE)
+                predicted = Short.MIN_VALUE;
+            index += INDEX_TABLE[code];
+            if (index < 0)
+                index = 0;
+            else if (index > 88)
+                index = 88;
+
+            out[outOffset + i] = (short)predicted;
+        }
+    }
+}
@@ -27,8 +27,11 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.motolky.sound;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
+import com.motolky.Common;
+
 /**
  * This is an abstract class for an encoder or a decoder. Do not instantiate it directly.
  *
@@ -40,7 +43,14 @@ import java.security.InvalidParameterException;
 public abstract class Codec
 {
     public static int CODEC_COMPLEXITY = 1;
-    protected int mFrameSize = 160;
+    // The ids of the codecs, as sent in the frame headers
+    public static final int CODEC_SPEEX = 1;
+    public static final int CODEC_PCMU = 2;
+    public static final int CODEC_PCMA = 3;
+    public static final int CODEC_IMA_ADPCM = 4;
+
+    // 20 ms, like the frames of speex
+    protected int mFrameSize = Common.SAMPLE_RATE / 50;
 
     /**
      * Given a buffer of data, decode it and return the result
@@ -54,6 +64,46 @@ public abstract class Codec
         return null;
     }
 
+    /**
+     * Decodes a frame into a buffer provided by the caller. Unlike
+     * decodeAndGetDecoded, this method does not allocate memory, if
+     * the codec implements it.
+     * @param data - the buffer holding the encoded frame
+     * @param offset - where the frame starts in data
+     * @param nr - the length of the encoded frame
+     * @param out - where to write the decoded samples
+     * @param outOffset - where the samples start in out
+     * @return the number of decoded samples, 0 if the frame could not be decoded
+     * @throws InvalidParameterException
+     */
+    public int decodeInto(byte[] data, int offset, int nr, short[] out, int outOffset)
+            throws InvalidParameterException
+    {
+        byte[] frame = data;
+        if (offset != 0)
+        {
+            frame = new byte[nr];
+            System.arraycopy(data, offset, frame, 0, nr);
+        }
+        short[] decoded = decodeAndGetDecoded(frame, nr);
+        if (decoded == null)
+            return 0;
+        System.arraycopy(decoded, 0, out, outOffset, decoded.length);
+        return decoded.length;
+    }
+
+    /**
+     * Produces a frame that replaces a lost one (packet loss concealment),
+     * from the state left in the decoder by the previous frames.
+     * @param out - where to write the samples
+     * @param outOffset - where the samples start in out
+     * @return the number of samples produced, 0 if the codec cannot conceal losses
+     */
+    public int conceal(short[] out, int outOffset)
+    {
+        return 0;
+    }
+
     /**
      * Given a buffer of data, encode it and return the result
      * @param data - the data to encode
@@ -67,6 +117,81 @@ public abstract class Codec
         return null;
     }
 
+    /**
+     * Encodes a frame into a buffer provided by the caller. Unlike
+     * encodeAndGetEncoded, this method does not allocate memory, if
+     * the codec implements it.
+     * @param data - the buffer holding the samples to encode
+     * @param offset - where the samples start in data
+     * @param length - the number of samples; it needs to equal the sample size
+     * @param out - where to write the encoded frame
+     * @param outOffset - where the encoded frame starts in out
+     * @param maxBytes - how many bytes can be written in out
+     * @return the length of the encoded frame, 0 if the frame could not be encoded
+     * @throws InvalidParameterException
+     */
+    public int encodeInto(short[] data, int offset, int length, byte[] out, int outOffset,
+            int maxBytes) throws InvalidParameterException
+    {
+        byte[] encoded = encodeAndGetEncoded(data, offset, length);
+        if (encoded == null || encoded.length > maxBytes)
+            return 0;
+        System.arraycopy(encoded, 0, out, outOffset, encoded.length);
+        return encoded.length;
+    }
+
+    /**
+     * @return true if the codec works directly on direct byte buffers,
+     * through encodeDirect() and decodeDirect()
+     */
+    public boolean supportsDirectBuffers()
+    {
+        return false;
+    }
+
+    /**
+     * Encodes a frame held in a direct buffer into another direct buffer,
+     * without copying it on the Java heap
+     * @param pcm - the buffer holding the samples, 16 bit in the native byte order
+     * @param pcmOffset - where the samples start in pcm, in bytes
+     * @param out - where to write the encoded frame
+     * @param outOffset - where the encoded frame starts in out
+     * @param maxBytes - how many bytes can be written in out
+     * @return the length of the encoded frame, 0 if the codec does not support direct buffers
+     * @throws InvalidParameterException
+     */
+    public int encodeDirect(ByteBuffer pcm, int pcmOffset, ByteBuffer out, int outOffset,
+            int maxBytes) throws InvalidParameterException
+    {
+        return 0;
+    }
+
+    /**
+     * Decodes a frame held in a direct buffer into another direct buffer,
+     * without copying it on the Java heap
+     * @param data - the buffer holding the encoded frame, or null to conceal a lost frame
+     * @param offset - where the frame starts in data
+     * @param nr - the length of the encoded frame
+     * @param pcm - where to write the samples, 16 bit in the native byte order
+     * @param pcmOffset - where the samples start in pcm, in bytes
+     * @return the number of decoded samples, 0 if the codec does not support direct buffers
+     * @throws InvalidParameterException
+     */
+    public int decodeDirect(ByteBuffer data, int offset, int nr, ByteBuffer pcm, int pcmOffset)
+            throws InvalidParameterException
+    {
+        return 0;
+    }
+
+    /**
+     * Changes the quality of the encoding, for the codecs with a variable
+     * bitrate. The other codecs ignore it.
+     * @param quality - between 0 (the lowest bitrate) and 10 (the best quality)
+     */
+    public void setQuality(int quality)
+    {
+    }
+
     /**
      *  End the encoding/decoding
      */
@@ -81,6 +206,14 @@ public abstract class Codec
         return this.mFrameSize;
     }
 
+    /**
+     * @return the id of the codec, sent along with every encoded frame
+     */
+    public int getCodecId()
+    {
+        return CODEC_SPEEX;
+    }
+
     /**
      * Data sanity check
      * @param nr - this needs to be equal to the sample size
@@ -0,0 +1,200 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * This class creates the encoders and the decoders. Speex is used when its
+ * library can be loaded. Otherwise, the sound is encoded with the fallback
+ * codec, written in Java. The frames of every Java codec can be decoded
+ * on any device, but the speex frames only where the library exists.
+ */
+public class CodecFactory {
+    // The codec to encode with when speex is not available
+    public static int FALLBACK_CODEC = Codec.CODEC_IMA_ADPCM;
+    // Use the speex bridge working on direct buffers instead of Java arrays
+    public static boolean USE_DIRECT_BUFFERS = false;
+    // The speex quality of every simulcast layer, from the best one
+    public static int[] LAYER_QUALITIES = { 8, 4, 2 };
+    // The codecs of the simulcast layers when speex is not available
+    public static int[] FALLBACK_LAYER_CODECS = { Codec.CODEC_PCMU, Codec.CODEC_IMA_ADPCM };
+
+    // The quality of the speex encoder when it is not set
+    private static final int SPEEX_DEFAULT_QUALITY = 8;
+
+    private static final Lock lock = new ReentrantLock();
+    private static boolean speexChecked = false;
+    private static boolean speexAvailable = false;
+
+    private CodecFactory() {
+    }
+
+    /**
+     * @return true if the speex library could be loaded
+     */
+    public static boolean isSpeexAvailable() {
+        lock.lock();
+        try {
+            if (!speexChecked) {
+                speexChecked = true;
+                try {
+                    System.loadLibrary("speex");
+                    speexAvailable = true;
+                } catch (UnsatisfiedLinkError e) {
+                    Log.e(Common.TAG, "Speex is not available, using the fallback codec");
+                } catch (SecurityException e) {
+                    Log.e(Common.TAG, "Speex is not available, using the fallback codec");
+                }
+            }
+            return speexAvailable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param codecId - the id of a codec, as sent in the frame headers
+     * @return true if the frames encoded with this codec can be decoded
+     */
+    public static boolean isSupported(int codecId) {
+        switch (codecId) {
+        case Codec.CODEC_SPEEX:
+            return isSpeexAvailable();
+        case Codec.CODEC_PCMU:
+        case Codec.CODEC_PCMA:
+        case Codec.CODEC_IMA_ADPCM:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Creates the encoder for the local microphone
+     * @return speex if it is available, the fallback codec otherwise
+     */
+    public static Codec createEncoder() {
+        return createEncoder(0, 1);
+    }
+
+    /**
+     * Creates the encoder of a simulcast layer
+     * @param layer - the layer, 0 being the best quality
+     * @param layers - the number of layers
+     * @return speex, at the quality of the layer, if it is available. The
+     * fallback codec of the layer otherwise.
+     */
+    public static Codec createEncoder(int layer, int layers) {
+        if (isSpeexAvailable()) {
+            try {
+                Codec codec;
+                if (USE_DIRECT_BUFFERS)
+                    codec = new DirectSpeexCodec(true);
+                else
+                    codec = new SoundEncoder();
+                if (layers > 1)
+                    codec.setQuality(getLayerQuality(layer, layers));
+                return codec;
+            } catch (Exception e) {
+                Log.e(Common.TAG, "Error creating the speex encoder: " + e.getMessage());
+            } catch (LinkageError e) {
+                Log.e(Common.TAG, "Error creating the speex encoder: " + e.getMessage());
+            }
+        }
+
+        int codecId = FALLBACK_CODEC;
+        if (layers > 1)
+            codecId = FALLBACK_LAYER_CODECS[Math.min(layer, FALLBACK_LAYER_CODECS.length - 1)];
+        Codec codec = createJavaCodec(codecId, Common.SAMPLE_RATE);
+        return codec != null ? codec : new AdpcmCodec();
+    }
+
+    /**
+     * @param layer - the layer, 0 being the best quality
+     * @param layers - the number of layers
+     * @return the speex quality the encoder of the layer starts with
+     */
+    public static int getLayerQuality(int layer, int layers) {
+        if (layers <= 1)
+            return SPEEX_DEFAULT_QUALITY;
+        return LAYER_QUALITIES[Math.min(layer, LAYER_QUALITIES.length - 1)];
+    }
+
+    /**
+     * Creates a decoder for the frames encoded with the given codec
+     * @param codecId - the id of the codec, as sent in the frame headers
+     * @return the decoder or null if the codec is not supported
+     */
+    public static Codec createDecoder(int codecId) {
+        return createDecoder(codecId, Common.SAMPLE_RATE);
+    }
+
+    /**
+     * Creates a decoder for the frames encoded with the given codec at the
+     * given sample rate
+     * @param codecId - the id of the codec, as sent in the frame headers
+     * @param sampleRate - Common.NARROWBAND_RATE or Common.WIDEBAND_RATE
+     * @return the decoder or null if the codec is not supported
+     */
+    public static Codec createDecoder(int codecId, int sampleRate) {
+        if (codecId == Codec.CODEC_SPEEX) {
+            if (!isSpeexAvailable())
+                return null;
+            try {
+                if (USE_DIRECT_BUFFERS)
+                    return new DirectSpeexCodec(false, sampleRate);
+                return new SoundDecoder(sampleRate);
+            } catch (Exception e) {
+                Log.e(Common.TAG, "Error creating the speex decoder: " + e.getMessage());
+            } catch (LinkageError e) {
+                Log.e(Common.TAG, "Error creating the speex decoder: " + e.getMessage());
+            }
+            return null;
+        }
+        return createJavaCodec(codecId, sampleRate);
+    }
+
+    private static Codec createJavaCodec(int codecId, int sampleRate) {
+        switch (codecId) {
+        case Codec.CODEC_PCMU:
+            return new G711Codec(false, sampleRate);
+        case Codec.CODEC_PCMA:
+            return new G711Codec(true, sampleRate);
+        case Codec.CODEC_IMA_ADPCM:
+            return new AdpcmCodec(sampleRate);
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class generates comfort noise: the background noise played while the
+ * remote peer does not transmit, such that the listener does not think the
+ * link is broken. The level of the noise is sent in comfort noise frames,
+ * as in RFC 3389: a byte holding the level in -dBov, from 0 (full scale)
+ * to 127.
+ */
+public class ComfortNoise {
+    public static final int PAYLOAD_LEN = 1;
+
+    private static final int MAX_LEVEL = 127;
+    private static final double FULL_SCALE = 32767;
+
+    private int mSeed = 1;
+    private int mLast = 0;
+
+    /**
+     * Converts a RMS value to the level sent in the comfort noise frames
+     * @param rms - the RMS of the noise
+     * @return the level, in -dBov
+     */
+    public static int rmsToLevel(float rms) {
+        if (rms < 1)
+            return MAX_LEVEL;
+        int level = (int)Math.round(-20 * Math.log10(rms / FULL_SCALE));
+        return Math.max(0, Math.min(MAX_LEVEL, level));
+    }
+
+    /**
+     * Converts a level received in a comfort noise frame back to a RMS value
+     * @param level - the level, in -dBov
+     * @return the RMS of the noise
+     */
+    public static float levelToRms(int level) {
+        return (float)(FULL_SCALE * Math.pow(10, -level / 20.0));
+    }
+
+    /**
+     * Generates noise
+     * @param out - where to write the samples
+     * @param offset - where the samples start in out
+     * @param length - how many samples to generate
+     * @param rms - the RMS of the noise
+     */
+    public void generate(short[] out, int offset, int length, float rms) {
+        // Uniform noise, slightly low-passed to sound less harsh. The filter
+        // divides the RMS of the noise by the square root of 3, and so does
+        // the uniform distribution, so its amplitude is 3 times the RMS.
+        int amplitude = (int)(rms * 3);
+        for (int i = offset; i < offset + length; i++) {
+            mSeed = mSeed * 1103515245 + 12345;
+            int sample = (int)(((long)((mSeed >> 8) & 0xFFFF) - 0x8000) * amplitude >> 15);
+            sample = (sample + mLast) >> 1;
+            mLast = sample;
+            if (sample > Short.MAX_VALUE)
+                sample = Short.MAX_VALUE;
+            else if (sample < Short.MIN_VALUE)
+                sample = Short.MIN_VALUE;
+            out[i] = (short)sample;
+        }
+    }
+}
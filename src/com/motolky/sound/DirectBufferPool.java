@@ -0,0 +1,105 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a pool of direct byte buffers. Direct buffers live outside
+ * the Java heap, so native code reads and writes them in place, without the
+ * copies or the pinning that Java arrays need. They are expensive to
+ * allocate, so they are allocated once and reused.
+ */
+public class DirectBufferPool {
+    private final Lock mLock = new ReentrantLock();
+    private final ByteBuffer[] mFree;
+    private final int mBufferSize;
+    private int mFreeCount;
+    private int mAllocated = 0;
+
+    /**
+     * Constructor
+     * @param count - how many buffers to allocate up front
+     * @param bufferSize - the size of a buffer, in bytes
+     */
+    public DirectBufferPool(int count, int bufferSize) {
+        mFree = new ByteBuffer[count];
+        mBufferSize = bufferSize;
+        for (int i = 0; i < count; i++)
+            mFree[i] = allocate();
+        mFreeCount = count;
+    }
+
+    /**
+     * Takes a buffer out of the pool. A new buffer is allocated if the pool is empty.
+     * @return a cleared buffer, in the native byte order
+     */
+    public ByteBuffer acquire() {
+        mLock.lock();
+        try {
+            if (mFreeCount == 0)
+                return allocate();
+            ByteBuffer buffer = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+            buffer.clear();
+            return buffer;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gives a buffer back to the pool. It is dropped if the pool is full.
+     * @param buffer - a buffer taken with acquire()
+     */
+    public void release(ByteBuffer buffer) {
+        mLock.lock();
+        if (mFreeCount < mFree.length && buffer.capacity() == mBufferSize)
+            mFree[mFreeCount++] = buffer;
+        mLock.unlock();
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * @return how many buffers the pool allocated since it was created
+     */
+    public int getAllocated() {
+        return mAllocated;
+    }
+
+    private ByteBuffer allocate() {
+        mAllocated++;
+        return ByteBuffer.allocateDirect(mBufferSize).order(ByteOrder.nativeOrder());
+    }
+}
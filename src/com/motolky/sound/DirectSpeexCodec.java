@@ -0,0 +1,218 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.security.InvalidParameterException;
+
+import com.motolky.Common;
+
+/**
+ * This class is a speex encoder or decoder whose native methods work on
+ * direct byte buffers. The state of speex is kept in native memory and
+ * addressed by a handle, so an object of this class can be used from any
+ * thread without the static lock of SoundEncoder.
+ *
+ * The samples are kept in the buffers as 16 bit values in the native byte
+ * order. The callers that already hold their data in direct buffers use
+ * encodeDirect() and decodeDirect(), which copy nothing. The methods taking
+ * Java arrays copy the data once, in a direct buffer taken from a pool.
+ */
+public class DirectSpeexCodec extends Codec
+{
+    private static final DirectBufferPool pool =
+            new DirectBufferPool(4, 2 * 2 * Common.WIDEBAND_RATE / 50);
+
+    private final boolean mEncoder;
+    private long mHandle;
+    private ByteBuffer mPcm;
+    private ShortBuffer mPcmShorts;
+    private ByteBuffer mBits;
+
+    /**
+     * Constructor. The speex library needs to be loaded already.
+     * @param encoder - true to create an encoder, false to create a decoder
+     * @throws Exception if speex could not create its state
+     */
+    public DirectSpeexCodec(boolean encoder) throws Exception
+    {
+        this(encoder, Common.SAMPLE_RATE);
+    }
+
+    /**
+     * Constructor. The speex library needs to be loaded already.
+     * @param encoder - true to create an encoder, false to create a decoder
+     * @param sampleRate - the sample rate of the sound, narrowband or wideband
+     * @throws Exception if speex could not create its state
+     */
+    public DirectSpeexCodec(boolean encoder, int sampleRate) throws Exception
+    {
+        this.mEncoder = encoder;
+        this.mHandle = create(encoder, sampleRate == Common.WIDEBAND_RATE);
+        if (this.mHandle == 0)
+            throw new Exception("Could not create the speex state");
+        this.mFrameSize = getFrameSize(this.mHandle);
+
+        this.mPcm = pool.acquire();
+        this.mBits = pool.acquire();
+        if (this.mPcm.capacity() < 2 * this.mFrameSize)
+            throw new Exception("The frames of speex do not fit in the pooled buffers");
+        this.mPcmShorts = this.mPcm.asShortBuffer();
+    }
+
+    @Override
+    public boolean supportsDirectBuffers()
+    {
+        return true;
+    }
+
+    @Override
+    public int encodeDirect(ByteBuffer pcm, int pcmOffset, ByteBuffer out, int outOffset,
+            int maxBytes) throws InvalidParameterException
+    {
+        if (!this.mEncoder)
+            throw new InvalidParameterException("This codec is a decoder");
+        if (pcmOffset + 2 * this.mFrameSize > pcm.capacity() || outOffset + maxBytes > out.capacity())
+            throw new InvalidParameterException("The buffers are too small");
+        int len = encode(this.mHandle, pcm, pcmOffset, out, outOffset, maxBytes);
+        return len > 0 ? len : 0;
+    }
+
+    @Override
+    public int decodeDirect(ByteBuffer data, int offset, int nr, ByteBuffer pcm, int pcmOffset)
+            throws InvalidParameterException
+    {
+        if (this.mEncoder)
+            throw new InvalidParameterException("This codec is an encoder");
+        if (pcmOffset + 2 * this.mFrameSize > pcm.capacity() ||
+                (data != null && offset + nr > data.capacity()))
+            throw new InvalidParameterException("The buffers are too small");
+        if (!decode(this.mHandle, data, offset, nr, pcm, pcmOffset))
+            return 0;
+        return this.mFrameSize;
+    }
+
+    @Override
+    public int encodeInto(short[] data, int offset, int length, byte[] out, int outOffset,
+            int maxBytes) throws InvalidParameterException
+    {
+        verifyDataLen(length);
+        this.mPcmShorts.clear();
+        this.mPcmShorts.put(data, offset, length);
+        int len = encodeDirect(this.mPcm, 0, this.mBits, 0,
+                Math.min(maxBytes, this.mBits.capacity()));
+        if (len > 0)
+        {
+            this.mBits.clear();
+            this.mBits.get(out, outOffset, len);
+        }
+        return len;
+    }
+
+    @Override
+    public byte[] encodeAndGetEncoded(short[] data, int start, int length)
+            throws InvalidParameterException
+    {
+        byte[] bytes = new byte[this.mBits.capacity()];
+        int len = encodeInto(data, start, length, bytes, 0, bytes.length);
+        if (len <= 0)
+            return null;
+        byte[] tmp = new byte[len];
+        System.arraycopy(bytes, 0, tmp, 0, len);
+        return tmp;
+    }
+
+    @Override
+    public int decodeInto(byte[] data, int offset, int nr, short[] out, int outOffset)
+            throws InvalidParameterException
+    {
+        if (nr > this.mBits.capacity())
+            return 0;
+        this.mBits.clear();
+        this.mBits.put(data, offset, nr);
+        if (decodeDirect(this.mBits, 0, nr, this.mPcm, 0) == 0)
+            return 0;
+        this.mPcmShorts.clear();
+        this.mPcmShorts.get(out, outOffset, this.mFrameSize);
+        return this.mFrameSize;
+    }
+
+    @Override
+    public short[] decodeAndGetDecoded(byte[] data, int nr) throws InvalidParameterException
+    {
+        short[] buf = new short[this.mFrameSize];
+        if (decodeInto(data, 0, nr, buf, 0) == 0)
+            return null;
+        return buf;
+    }
+
+    @Override
+    public int conceal(short[] out, int outOffset)
+    {
+        // Speex extrapolates a frame when it decodes a null packet
+        if (decodeDirect(null, 0, 0, this.mPcm, 0) == 0)
+            return 0;
+        this.mPcmShorts.clear();
+        this.mPcmShorts.get(out, outOffset, this.mFrameSize);
+        return this.mFrameSize;
+    }
+
+    @Override
+    public void setQuality(int quality)
+    {
+        if (this.mEncoder && this.mHandle != 0)
+            setQuality(this.mHandle, quality);
+    }
+
+    @Override
+    public void exit()
+    {
+        if (this.mHandle == 0)
+            return;
+        destroy(this.mHandle);
+        this.mHandle = 0;
+        pool.release(this.mPcm);
+        pool.release(this.mBits);
+    }
+
+    // TODO: These functions need to be implemented in C
+    private static native long create(boolean encoder, boolean wideband);
+
+    private static native int getFrameSize(long handle);
+
+    private static native int encode(long handle, ByteBuffer pcm, int pcmOffset, ByteBuffer out,
+            int outOffset, int maxBytes);
+
+    private static native boolean decode(long handle, ByteBuffer data, int offset, int nr,
+            ByteBuffer pcm, int pcmOffset);
+
+    private static native void setQuality(long handle, int quality);
+
+    private static native void destroy(long handle);
+}
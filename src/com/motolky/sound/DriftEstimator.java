@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * This class estimates how fast the sample clock of a peer runs compared
+ * with the local playback clock. No two phones record and play at exactly
+ * the same rate, so over a long talk the frames of a peer pile up in its
+ * jitter buffer or run out.
+ *
+ * For every received frame, the estimator computes the transit time: the
+ * samples played locally minus the samples recorded by the peer. The jitter
+ * only ever delays the frames, so the lowest transit time of a window of
+ * WINDOW_FRAMES frames is taken as its true value. The drift is the slope
+ * of the line fitted through the last WINDOWS windows. When the transit
+ * time jumps, for example because the peer stopped recording or the local
+ * playback paused, the windows are thrown away and the fit starts over,
+ * keeping the last drift.
+ */
+public class DriftEstimator {
+    // 5 seconds of 20 ms frames
+    private static final int WINDOW_FRAMES = 250;
+    private static final int WINDOWS = 12;
+    // The fit needs at least this many windows
+    private static final int MIN_WINDOWS = 3;
+    // Clocks further apart than this are not drift (1000 ppm)
+    private static final double MAX_DRIFT = 0.001;
+
+    private final int mLocalRate;
+    // A change of the transit time larger than this is a jump, in samples
+    private final long mMaxJump;
+
+    private boolean mStarted = false;
+    private int mRemoteRate = 0;
+    private int mLastTimestamp = 0;
+    // The samples recorded by the peer, unwrapped
+    private long mRemoteSamples = 0;
+
+    private long mWindowMin = 0;
+    private int mWindowFrames = 0;
+    private final long[] mWindowLocal = new long[WINDOWS];
+    private final long[] mWindowTransit = new long[WINDOWS];
+    private int mFirstWindow = 0;
+    private int mWindows = 0;
+
+    private double mDrift = 0;
+    private int mJumps = 0;
+
+    /**
+     * Constructor
+     * @param localRate - the sample rate of the local playback
+     */
+    public DriftEstimator(int localRate) {
+        mLocalRate = localRate;
+        mMaxJump = localRate / 10;
+    }
+
+    /**
+     * Takes the arrival of a frame into account
+     * @param timestamp - the timestamp of the frame, in samples of the peer
+     * @param remoteRate - the sample rate of the peer
+     * @param localSamples - the samples played locally so far
+     */
+    public void update(int timestamp, int remoteRate, long localSamples) {
+        if (!mStarted || remoteRate != mRemoteRate) {
+            mStarted = true;
+            mRemoteRate = remoteRate;
+            mRemoteSamples = 0;
+            mLastTimestamp = timestamp;
+            restart();
+        }
+        mRemoteSamples += timestamp - mLastTimestamp;
+        mLastTimestamp = timestamp;
+
+        long transit = localSamples - mRemoteSamples * mLocalRate / mRemoteRate;
+        if (mWindowFrames == 0 || transit < mWindowMin)
+            mWindowMin = transit;
+        if (++mWindowFrames < WINDOW_FRAMES)
+            return;
+
+        // The window is complete
+        if (mWindows > 0) {
+            long last = mWindowTransit[(mFirstWindow + mWindows - 1) % WINDOWS];
+            if (Math.abs(mWindowMin - last) > mMaxJump) {
+                mJumps++;
+                restart();
+            }
+        }
+        if (mWindows == WINDOWS) {
+            mFirstWindow = (mFirstWindow + 1) % WINDOWS;
+            mWindows--;
+        }
+        int index = (mFirstWindow + mWindows) % WINDOWS;
+        mWindowLocal[index] = localSamples;
+        mWindowTransit[index] = mWindowMin;
+        mWindows++;
+        mWindowFrames = 0;
+
+        if (mWindows >= MIN_WINDOWS)
+            fit();
+    }
+
+    /**
+     * @return how many samples of the peer are played for every local
+     * sample, to follow its clock
+     */
+    public double getRatio() {
+        return 1 - mDrift;
+    }
+
+    /**
+     * @return the estimated drift, in parts per million; positive when the
+     * peer is slower than the local playback
+     */
+    public int getDriftPpm() {
+        return (int)Math.round(mDrift * 1e6);
+    }
+
+    /**
+     * @return how many times the transit time jumped
+     */
+    public int getJumps() {
+        return mJumps;
+    }
+
+    private void restart() {
+        mWindows = 0;
+        mFirstWindow = 0;
+        mWindowFrames = 0;
+    }
+
+    /**
+     * Fits a line through the windows, by least squares
+     */
+    private void fit() {
+        long x0 = mWindowLocal[mFirstWindow];
+        long y0 = mWindowTransit[mFirstWindow];
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < mWindows; i++) {
+            int index = (mFirstWindow + i) % WINDOWS;
+            double x = mWindowLocal[index] - x0;
+            double y = mWindowTransit[index] - y0;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double d = mWindows * sxx - sx * sx;
+        if (d <= 0)
+            return;
+        double slope = (mWindows * sxy - sx * sy) / d;
+        mDrift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, slope));
+    }
+}
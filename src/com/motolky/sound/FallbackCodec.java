@@ -0,0 +1,140 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.security.InvalidParameterException;
+
+import com.motolky.Common;
+
+/**
+ * This is the base class of the codecs written in Java. They are used when
+ * the speex library is not available. A codec of this kind both encodes
+ * and decodes, and it works on frames of the same duration as speex, at
+ * the sample rate it was created for.
+ *
+ * A lost frame is concealed by repeating the last decoded frame, at half
+ * the volume of the previous repetition.
+ */
+public abstract class FallbackCodec extends Codec
+{
+    private final short[] mLastFrame;
+    private int mConcealShift = 0;
+
+    protected FallbackCodec()
+    {
+        this(Common.SAMPLE_RATE);
+    }
+
+    /**
+     * Constructor
+     * @param sampleRate - the sample rate of the sound, in Hz
+     */
+    protected FallbackCodec(int sampleRate)
+    {
+        this.mFrameSize = sampleRate / 50;
+        this.mLastFrame = new short[this.mFrameSize];
+    }
+
+    /**
+     * @return the length in bytes of an encoded frame
+     */
+    public abstract int getEncodedSize();
+
+    /**
+     * Encodes exactly one frame. The buffers were already checked.
+     */
+    protected abstract void encodeFrame(short[] data, int offset, byte[] out, int outOffset);
+
+    /**
+     * Decodes exactly one frame. The buffers were already checked.
+     */
+    protected abstract void decodeFrame(byte[] data, int offset, short[] out, int outOffset);
+
+    @Override
+    public short[] decodeAndGetDecoded(byte[] data, int nr) throws InvalidParameterException
+    {
+        short[] buf = new short[getSampleSize()];
+        if (decodeInto(data, 0, nr, buf, 0) == 0)
+            return null;
+        return buf;
+    }
+
+    @Override
+    public int decodeInto(byte[] data, int offset, int nr, short[] out, int outOffset)
+            throws InvalidParameterException
+    {
+        if (outOffset + this.mFrameSize > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+        if (nr != getEncodedSize())
+            return 0;
+
+        decodeFrame(data, offset, out, outOffset);
+        System.arraycopy(out, outOffset, this.mLastFrame, 0, this.mFrameSize);
+        this.mConcealShift = 0;
+        return this.mFrameSize;
+    }
+
+    @Override
+    public int conceal(short[] out, int outOffset)
+    {
+        if (outOffset + this.mFrameSize > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+
+        this.mConcealShift++;
+        for (int i = 0; i < this.mFrameSize; i++)
+            out[outOffset + i] = (short)(this.mLastFrame[i] >> this.mConcealShift);
+        return this.mFrameSize;
+    }
+
+    @Override
+    public byte[] encodeAndGetEncoded(short[] data, int start, int length)
+            throws InvalidParameterException
+    {
+        byte[] bytes = new byte[getEncodedSize()];
+        if (encodeInto(data, start, length, bytes, 0, bytes.length) == 0)
+            return null;
+        return bytes;
+    }
+
+    @Override
+    public int encodeInto(short[] data, int offset, int length, byte[] out, int outOffset,
+            int maxBytes) throws InvalidParameterException
+    {
+        verifyDataLen(length);
+        if (maxBytes < getEncodedSize() || outOffset + getEncodedSize() > out.length)
+            return 0;
+
+        encodeFrame(data, offset, out, outOffset);
+        return getEncodedSize();
+    }
+
+    @Override
+    public void exit()
+    {
+    }
+}
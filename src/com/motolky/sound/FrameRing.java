@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class is a ring of encoded frames between exactly one producer thread
+ * (the thread receiving from the socket) and one consumer thread (the mixer).
+ * Neither side takes a lock or waits: the producer only writes the tail index
+ * and the consumer only writes the head index. Both indexes are volatile, so
+ * a frame written in a slot is visible to the consumer once the tail moves
+ * past it.
+ *
+ * When the ring is full the new frame is dropped, so the ring should hold at
+ * least as many frames as the jitter buffer it feeds: a burst that the jitter
+ * buffer could absorb must not be lost on the way. The slots are allocated
+ * once, in the constructor.
+ */
+public class FrameRing {
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+    private final int[] mSequences;
+    private final int[] mTimestamps;
+    private final int[] mRates;
+    private final long[] mArrivals;
+    private final int mMask;
+
+    // Written only by the producer
+    private volatile int mTail = 0;
+    private int mDropped = 0;
+    // Written only by the consumer
+    private volatile int mHead = 0;
+
+    /**
+     * Constructor
+     * @param capacity - the number of frame slots; it is rounded up to a power of two
+     * @param maxFrameLen - the maximum size in bytes of an encoded frame
+     */
+    public FrameRing(int capacity, int maxFrameLen) {
+        int slots = 1;
+        while (slots < capacity)
+            slots <<= 1;
+
+        mSlots = new byte[slots][maxFrameLen];
+        mLengths = new int[slots];
+        mSequences = new int[slots];
+        mTimestamps = new int[slots];
+        mRates = new int[slots];
+        mArrivals = new long[slots];
+        mMask = slots - 1;
+    }
+
+    /**
+     * Puts a frame in the ring. Called only by the producer.
+     * @param seq - the sequence number of the frame
+     * @param timestamp - the capture time of the frame, in samples
+     * @param rate - the sample rate of the timestamp
+     * @param data - the buffer containing the frame
+     * @param offset - where the frame starts in the buffer
+     * @param len - the length of the frame
+     * @param arrivalMillis - the local time when the frame was received
+     * @return false if the frame was dropped
+     */
+    public boolean offer(int seq, int timestamp, int rate, byte[] data, int offset, int len,
+                         long arrivalMillis) {
+        int tail = mTail;
+        if (tail - mHead > mMask || len > mSlots[0].length) {
+            mDropped++;
+            return false;
+        }
+
+        int index = tail & mMask;
+        System.arraycopy(data, offset, mSlots[index], 0, len);
+        mLengths[index] = len;
+        mSequences[index] = seq;
+        mTimestamps[index] = timestamp;
+        mRates[index] = rate;
+        mArrivals[index] = arrivalMillis;
+        mTail = tail + 1;
+        return true;
+    }
+
+    /**
+     * Moves all the frames in the ring to a jitter buffer. Called only by the consumer.
+     * @param jitterBuffer - where to put the frames
+     * @return the number of frames moved
+     */
+    public int drainTo(JitterBuffer jitterBuffer) {
+        int head = mHead;
+        int tail = mTail;
+        for (int i = head; i != tail; i++) {
+            int index = i & mMask;
+            jitterBuffer.putFrame(mSequences[index], mTimestamps[index], mRates[index],
+                    mSlots[index], 0, mLengths[index], mArrivals[index]);
+        }
+        mHead = tail;
+        return tail - head;
+    }
+
+    public boolean isEmpty() {
+        return mHead == mTail;
+    }
+
+    /**
+     * @return the number of frames dropped because the ring was full
+     */
+    public int getDropped() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * This class implements the G.711 codec, in its mu-law or A-law variant.
+ * Every sample is compressed to a byte, so a frame of 20 ms takes 160 bytes
+ * in narrowband and 320 bytes in wideband.
+ * The decoding is done with a table; the encoding computes the segment of
+ * the sample, as in the reference implementation of the standard.
+ */
+public class G711Codec extends FallbackCodec
+{
+    private static final int MULAW_BIAS = 0x84;
+    private static final int MULAW_CLIP = 32635;
+    private static final int[] ALAW_SEGMENT_END = {
+        0x1F, 0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF
+    };
+
+    private static final short[] muLawTable = new short[256];
+    private static final short[] aLawTable = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++)
+        {
+            muLawTable[i] = muLawToLinear(i);
+            aLawTable[i] = aLawToLinear(i);
+        }
+    }
+
+    private final boolean mALaw;
+    private final short[] mTable;
+
+    /**
+     * Constructor
+     * @param aLaw - true for A-law, false for mu-law
+     */
+    public G711Codec(boolean aLaw)
+    {
+        this(aLaw, Common.SAMPLE_RATE);
+    }
+
+    /**
+     * Constructor
+     * @param aLaw - true for A-law, false for mu-law
+     * @param sampleRate - the sample rate of the sound, in Hz
+     */
+    public G711Codec(boolean aLaw, int sampleRate)
+    {
+        super(sampleRate);
+        this.mALaw = aLaw;
+        this.mTable = aLaw ? aLawTable : muLawTable;
+    }
+
+    @Override
+    public int getCodecId()
+    {
+        return this.mALaw ? CODEC_PCMA : CODEC_PCMU;
+    }
+
+    @Override
+    public int getEncodedSize()
+    {
+        return this.mFrameSize;
+    }
+
+    @Override
+    protected void encodeFrame(short[] data, int offset, byte[] out, int outOffset)
+    {
+        if (this.mALaw)
+        {
+            for (int i = 0; i < this.mFrameSize; i++)
+                out[outOffset + i] = linearToALaw(data[offset + i]);
+        }
+        else
+        {
+            for (int i = 0; i < this.mFrameSize; i++)
+                out[outOffset + i] = linearToMuLaw(data[offset + i]);
+        }
+    }
+
+    @Override
+    protected void decodeFrame(byte[] data, int offset, short[] out, int outOffset)
+    {
+        short[] table = this.mTable;
+        for (int i = 0; i < this.mFrameSize; i++)
+            out[outOffset + i] = table[data[offset + i] & 0xFF];
+    }
+
+    static byte linearToMuLaw(int sample)
+    {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0)
+            sample = -sample;
+        if (sample > MULAW_CLIP)
+            sample = MULAW_CLIP;
+        sample += MULAW_BIAS;
+
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1)
+            exponent--;
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte)~(sign | (exponent << 4) | mantissa);
+    }
+
+    static short muLawToLinear(int value)
+    {
+        value = ~value;
+        int t = ((value & 0x0F) << 3) + MULAW_BIAS;
+        t <<= (value & 0x70) >> 4;
+        return (short)((value & 0x80) != 0 ? MULAW_BIAS - t : t - MULAW_BIAS);
+    }
+
+    static byte linearToALaw(int sample)
+    {
+        int mask;
+        sample >>= 3;
+        if (sample >= 0)
+        {
+            mask = 0xD5;
+        }
+        else
+        {
+            mask = 0x55;
+            sample = -sample - 1;
+        }
+
+        int segment = 0;
+        while (segment < ALAW_SEGMENT_END.length && sample > ALAW_SEGMENT_END[segment])
+            segment++;
+        if (segment >= ALAW_SEGMENT_END.length)
+            return (byte)(0x7F ^ mask);
+
+        int value = segment << 4;
+        if (segment < 2)
+            value |= (sample >> 1) & 0x0F;
+        else
+            value |= (sample >> segment) & 0x0F;
+        return (byte)(value ^ mask);
+    }
+
+    static short aLawToLinear(int value)
+    {
+        value ^= 0x55;
+        int t = (value & 0x0F) << 4;
+        int segment = (value & 0x70) >> 4;
+        switch (segment)
+        {
+        case 0:
+            t += 8;
+            break;
+        case 1:
+            t += 0x108;
+            break;
+        default:
+            t += 0x108;
+            t <<= segment - 1;
+        }
+        return (short)((value & 0x80) != 0 ? t : -t);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+import com.motolky.Common;
+import com.motolky.communication.ISendHandler;
+
+/**
+ * In hub mode a single device, the hub, accepts the links of all the other
+ * members of the group, instead of every member linking with every other
+ * one. This class sends every member the sound of all the others.
+ *
+ * The hub decodes the stream of every member as if it only played it, and
+ * the mixer hands the decoded frames here on every tick. They are added to
+ * the sound of the local microphone and every member gets the mix minus its
+ * own frame, encoded by a sound processor of its own. A member stream has a
+ * single receiver, so it is encoded in a single layer whose quality follows
+ * the link of that member only.
+ *
+ * The microphone is read on its own clock, so its sound waits in a small
+ * ring until the mixer takes it. When the ring is full the oldest sound is
+ * dropped; when it is empty the mix goes on without the local sound.
+ */
+public class HubMixer {
+    // How many frames of the microphone wait for the mixer at most
+    private static final int LOCAL_RING_FRAMES = 4;
+
+    private final Lock mLock = new ReentrantLock();
+    private final List<Member> mMembers = new ArrayList<Member>();
+    private final int mFrameSize;
+    private final short[] mLocalRing;
+    private int mLocalFirst = 0;
+    private int mLocalLen = 0;
+    private final int[] mMix;
+    private final short[] mOut;
+    private final byte[] mPacket = new byte[Common.MAX_PACKET_LEN];
+    private final int[] mLayerRate = new int[1];
+    private long mMixes = 0;
+    private long mLocalDropped = 0;
+
+    public HubMixer() {
+        mFrameSize = Common.SAMPLE_RATE * Mixer.FRAME_MILLIS / 1000;
+        mLocalRing = new short[LOCAL_RING_FRAMES * mFrameSize];
+        mMix = new int[mFrameSize];
+        mOut = new short[mFrameSize];
+    }
+
+    /**
+     * Adds a member to the mix
+     * @param player - the player decoding the stream of the member
+     * @param sendHandler - the link on which the member gets its mix
+     */
+    public void addMember(Player player, ISendHandler sendHandler) {
+        Member member = new Member(player, sendHandler);
+        mLock.lock();
+        mMembers.add(member);
+        mLock.unlock();
+    }
+
+    /**
+     * Removes a member from the mix. When this method returns, nothing is
+     * sent to the member anymore.
+     * @param sendHandler - the link of the member
+     */
+    public void removeMember(ISendHandler sendHandler) {
+        Member removed = null;
+        mLock.lock();
+        for (int i = 0; i < mMembers.size(); i++)
+            if (mMembers.get(i).mSendHandler == sendHandler) {
+                removed = mMembers.remove(i);
+                break;
+            }
+        mLock.unlock();
+
+        if (removed != null)
+            removed.mProcessor.exit();
+    }
+
+    /**
+     * Queues the sound of the local microphone for the next mixes
+     * @param data - the samples
+     * @param shorts - how many samples
+     */
+    public void addLocalSound(short[] data, int shorts) {
+        mLock.lock();
+        for (int i = 0; i < shorts; i++) {
+            if (mLocalLen == mLocalRing.length) {
+                mLocalFirst = (mLocalFirst + 1) % mLocalRing.length;
+                mLocalLen--;
+                mLocalDropped++;
+            }
+            mLocalRing[(mLocalFirst + mLocalLen) % mLocalRing.length] = data[i];
+            mLocalLen++;
+        }
+        mLock.unlock();
+    }
+
+    /**
+     * @return true if no local sound waits to be mixed
+     */
+    boolean isIdle() {
+        mLock.lock();
+        boolean idle = mLocalLen < mFrameSize;
+        mLock.unlock();
+        return idle;
+    }
+
+    /**
+     * Keeps the frame a player gave to the mixer in this tick. Called by the
+     * mixer, for every player.
+     * @param player - the player
+     * @param frame - the decoded frame
+     * @param samples - the length of the frame; 0 if the player had nothing
+     */
+    void setFrame(Player player, short[] frame, int samples) {
+        mLock.lock();
+        for (int m = 0; m < mMembers.size(); m++) {
+            Member member = mMembers.get(m);
+            if (member.mPlayer == player) {
+                int len = Math.min(samples, mFrameSize);
+                System.arraycopy(frame, 0, member.mFrame, 0, len);
+                for (int i = len; i < mFrameSize; i++)
+                    member.mFrame[i] = 0;
+                break;
+            }
+        }
+        mLock.unlock();
+    }
+
+    /**
+     * Mixes the frames of this tick and sends every member its mix. Called by
+     * the mixer once per tick, after setFrame() was called for every player.
+     */
+    void mix() {
+        mLock.lock();
+        try {
+            if (mMembers.isEmpty())
+                return;
+
+            // Add everything once: the local sound and every member
+            if (mLocalLen >= mFrameSize) {
+                for (int i = 0; i < mFrameSize; i++) {
+                    mMix[i] = mLocalRing[mLocalFirst];
+                    mLocalFirst = (mLocalFirst + 1) % mLocalRing.length;
+                }
+                mLocalLen -= mFrameSize;
+            } else {
+                for (int i = 0; i < mFrameSize; i++)
+                    mMix[i] = 0;
+            }
+            for (int m = 0; m < mMembers.size(); m++) {
+                short[] frame = mMembers.get(m).mFrame;
+                for (int i = 0; i < mFrameSize; i++)
+                    mMix[i] += frame[i];
+            }
+
+            // Then take every member out of the mix it gets
+            for (int m = 0; m < mMembers.size(); m++) {
+                Member member = mMembers.get(m);
+                short[] own = member.mFrame;
+                for (int i = 0; i < mFrameSize; i++) {
+                    int sample = mMix[i] - own[i];
+                    if (sample > Short.MAX_VALUE)
+                        sample = Short.MAX_VALUE;
+                    else if (sample < Short.MIN_VALUE)
+                        sample = Short.MIN_VALUE;
+                    mOut[i] = (short)sample;
+                }
+                member.send(mOut);
+            }
+
+            // A member whose player gives nothing in the next tick adds nothing
+            for (int m = 0; m < mMembers.size(); m++) {
+                short[] frame = mMembers.get(m).mFrame;
+                for (int i = 0; i < mFrameSize; i++)
+                    frame[i] = 0;
+            }
+            mMixes++;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the encoders of the members
+     */
+    public void exit() {
+        mLock.lock();
+        List<Member> members = new ArrayList<Member>(mMembers);
+        mMembers.clear();
+        mLock.unlock();
+
+        for (Member member : members)
+            member.mProcessor.exit();
+        Log.d(Common.TAG, "Hub: mixed " + mMixes + " frames, dropped " +
+                mLocalDropped + " local samples");
+    }
+
+    private class Member {
+        private final Player mPlayer;
+        private final ISendHandler mSendHandler;
+        private final ISoundProcessor mProcessor = new SoundProcessor(1, 1);
+        private final short[] mFrame = new short[mFrameSize];
+
+        public Member(Player player, ISendHandler sendHandler) {
+            mPlayer = player;
+            mSendHandler = sendHandler;
+            if (mProcessor.getFrameSize() != mFrameSize)
+                Log.e(Common.TAG, "The hub encoder uses another frame size than the mixer");
+        }
+
+        /**
+         * Encodes the mix of the member and sends it once a packet is ready
+         */
+        private void send(short[] mix) {
+            mProcessor.addRawSound(mix, mFrameSize);
+            int len = mProcessor.getProcessedSound(0, mPacket, mPacket.length);
+            if (len <= 0)
+                return;
+
+            // Let the link measure itself and lower the quality if it is congested
+            mLayerRate[0] = mProcessor.getLayerRate(0);
+            mSendHandler.selectLayer(mLayerRate, 1);
+            mSendHandler.sendData(mPacket, len);
+            mProcessor.setQualityStep(0, mSendHandler.getQualityStep());
+        }
+    }
+}
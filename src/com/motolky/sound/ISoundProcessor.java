@@ -38,4 +38,34 @@ public interface ISoundProcessor {
       public abstract void exit();
 
       public abstract int getProcessedSound(byte[] buffer, int nr);
+
+      /**
+       * Gets the processed sound of a layer. The layers hold the same sound
+       * at different bitrates; layer 0 has the best quality.
+       */
+      public abstract int getProcessedSound(int layer, byte[] buffer, int nr);
+
+      public abstract int getLayers();
+
+      /**
+       * @return the number of samples of a frame of the codec
+       */
+      public abstract int getFrameSize();
+
+      /**
+       * @return the bitrate of a layer, in bytes per second
+       */
+      public abstract int getLayerRate(int layer);
+
+      /**
+       * Lowers the quality of a layer below the one it started with
+       * @param layer - the layer
+       * @param step - how many steps to lower the quality; 0 restores it
+       */
+      public abstract void setQualityStep(int layer, int step);
+
+      /**
+       * @return the fraction of the frames that were not sent because they were silent
+       */
+      public abstract float getSuppressedFraction();
 }
@@ -0,0 +1,367 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * This class implements an adaptive jitter buffer. The encoded frames received
+ * from a peer are stored in slots indexed by their sequence number, such that
+ * they are handed to the decoder in order, no matter how they arrived.
+ *
+ * The buffer measures the jitter of the frame arrival times against their
+ * capture times and computes from it the number of frames it should hold before starting the playback (the
+ * target depth). A larger depth means less underruns, but a larger delay
+ * between the speaker's mouth and the listener's ear. The target depth grows
+ * as soon as the jitter grows and shrinks slowly when the link calms down.
+ * The capture times come from the frame headers, such that the frames a
+ * sender leaves out while its user is silent do not count as jitter.
+ *
+ * The buffer also keeps the delay near the target while playing. When its
+ * smoothed depth stays more than Common.JITTER_SKIP_MARGIN frames above the
+ * target, it skips a frame, at most every SKIP_INTERVAL frames. A missing
+ * frame is skipped rather than concealed when possible, since that costs
+ * nothing to hear. The rest of the stream is never thrown away.
+ *
+ * Sequence numbers are 16 bit values that wrap around.
+ */
+public class JitterBuffer {
+    // Results of getFrame() when no frame was copied
+    public static final int FRAME_MISSING = -1;
+    public static final int BUFFERING = -2;
+
+    private static final int SEQUENCE_MASK = 0xFFFF;
+    // The weight of a new jitter sample, as in RFC 3550
+    private static final float JITTER_GAIN = 1.0f / 16;
+    // The target depth covers this many times the measured jitter
+    private static final float JITTER_FACTOR = 3.0f;
+    // How many frames the jitter needs to stay low before the target depth shrinks
+    private static final int SHRINK_DELAY = 50;
+    // The weight of a new depth in the smoothed depth
+    private static final float DEPTH_GAIN = 1.0f / 16;
+    // Frames played between two skipped frames, at least
+    private static final int SKIP_INTERVAL = 10;
+
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+    private final boolean[] mFilled;
+    private final long[] mArrivals;
+    private final int mMask;
+    private final int mFrameMillis;
+
+    private boolean mStarted = false;
+    private boolean mPlaying = false;
+    private int mNextSeq = 0;
+    private int mHighestSeq = 0;
+
+    private int mLastSeq = 0;
+    private int mLastTimestamp = 0;
+    private long mLastArrival = 0;
+    private float mJitter = 0;
+    private int mTargetDepth;
+    private int mShrinkCounter = 0;
+    private float mAverageDepth = 0;
+    private int mSinceSkip = 0;
+    // How long the frames wait in the buffer before being played
+    private float mQueueDelay = 0;
+
+    private int mLateFrames = 0;
+    private int mDiscardedFrames = 0;
+    private int mMissingFrames = 0;
+    private int mUnderruns = 0;
+    private int mSkippedFrames = 0;
+
+    /**
+     * Constructor
+     * @param capacity - the number of frame slots; it is rounded up to a power of two
+     * @param maxFrameLen - the maximum size in bytes of an encoded frame
+     * @param frameMillis - the duration of a frame in milliseconds
+     */
+    public JitterBuffer(int capacity, int maxFrameLen, int frameMillis) {
+        int slots = 1;
+        while (slots < capacity)
+            slots <<= 1;
+
+        mSlots = new byte[slots][maxFrameLen];
+        mLengths = new int[slots];
+        mFilled = new boolean[slots];
+        mArrivals = new long[slots];
+        mMask = slots - 1;
+        mFrameMillis = frameMillis;
+        mTargetDepth = Common.JITTER_MIN_DEPTH;
+    }
+
+    /**
+     * Inserts an encoded frame in the buffer
+     * @param seq - the sequence number of the frame
+     * @param timestamp - the capture time of the frame, in samples
+     * @param rate - the sample rate of the timestamp
+     * @param data - the buffer containing the frame
+     * @param offset - where the frame starts in the buffer
+     * @param len - the length of the frame
+     * @param arrivalMillis - the local time when the frame was received
+     */
+    public void putFrame(int seq, int timestamp, int rate, byte[] data, int offset, int len,
+                         long arrivalMillis) {
+        seq &= SEQUENCE_MASK;
+        if (len > mSlots[0].length) {
+            mDiscardedFrames++;
+            return;
+        }
+
+        if (!mStarted) {
+            mStarted = true;
+            mNextSeq = seq;
+            mHighestSeq = seq;
+            mLastSeq = seq;
+            mLastTimestamp = timestamp;
+            mLastArrival = arrivalMillis;
+        } else {
+            updateJitter(seq, timestamp, rate, arrivalMillis);
+        }
+
+        int distance = seqDiff(seq, mNextSeq);
+        if (distance < 0) {
+            // Its turn to be played has passed
+            mLateFrames++;
+            return;
+        }
+
+        if (distance > mMask) {
+            // The frame is too far ahead. Throw away the oldest frames to make room for it.
+            int drop = Math.min(distance - mMask, mMask + 1);
+            for (int i = 0; i < drop; i++) {
+                int index = (mNextSeq + i) & mMask;
+                if (mFilled[index]) {
+                    mFilled[index] = false;
+                    mDiscardedFrames++;
+                }
+            }
+            mNextSeq = (seq - mMask) & SEQUENCE_MASK;
+        }
+
+        int index = seq & mMask;
+        if (mFilled[index]) {
+            // Duplicate frame
+            mDiscardedFrames++;
+            return;
+        }
+
+        System.arraycopy(data, offset, mSlots[index], 0, len);
+        mLengths[index] = len;
+        mFilled[index] = true;
+        mArrivals[index] = arrivalMillis;
+        if (seqDiff(seq, mHighestSeq) > 0)
+            mHighestSeq = seq;
+    }
+
+    /**
+     * Gets the next frame to be played.
+     * @param out - the buffer where the frame is copied
+     * @return the length of the frame, FRAME_MISSING if the frame to be played
+     * next was lost or is late or BUFFERING if the buffer is filling up
+     */
+    public int getFrame(byte[] out) {
+        return getFrame(out, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the next frame to be played, skipping one if the buffer holds
+     * too much.
+     * @param out - the buffer where the frame is copied
+     * @param nowMillis - the local time, to measure how long the frame waited
+     * @return the length of the frame, FRAME_MISSING if the frame to be played
+     * next was lost or is late or BUFFERING if the buffer is filling up
+     */
+    public int getFrame(byte[] out, long nowMillis) {
+        if (!mStarted)
+            return BUFFERING;
+
+        int depth = getDepth();
+        if (!mPlaying) {
+            if (depth < mTargetDepth)
+                return BUFFERING;
+            mPlaying = true;
+        } else if (depth <= 0) {
+            // Nothing left to play. Wait for the buffer to fill up again.
+            mPlaying = false;
+            mUnderruns++;
+            return BUFFERING;
+        }
+
+        // Skip a frame if the buffer stays too deep, a missing one if possible
+        mAverageDepth += (depth - mAverageDepth) * DEPTH_GAIN;
+        mSinceSkip++;
+        if (mAverageDepth > mTargetDepth + Common.JITTER_SKIP_MARGIN &&
+                mSinceSkip >= SKIP_INTERVAL && depth > 1) {
+            int skip = mNextSeq & mMask;
+            int next = (mNextSeq + 1) & mMask;
+            // A frame is not traded for a missing one
+            if (!mFilled[skip] || mFilled[next]) {
+                mFilled[skip] = false;
+                mNextSeq = (mNextSeq + 1) & SEQUENCE_MASK;
+                mSkippedFrames++;
+                mSinceSkip = 0;
+                mAverageDepth--;
+            }
+        }
+
+        int index = mNextSeq & mMask;
+        mNextSeq = (mNextSeq + 1) & SEQUENCE_MASK;
+        if (!mFilled[index]) {
+            mMissingFrames++;
+            return FRAME_MISSING;
+        }
+
+        int len = mLengths[index];
+        System.arraycopy(mSlots[index], 0, out, 0, len);
+        mFilled[index] = false;
+        mQueueDelay += ((nowMillis - mArrivals[index]) - mQueueDelay) * DEPTH_GAIN;
+        return len;
+    }
+
+    /**
+     * @return the number of frames between the next frame to be played and
+     * the newest frame received, including both
+     */
+    public int getDepth() {
+        if (!mStarted)
+            return 0;
+        int depth = seqDiff(mHighestSeq, mNextSeq) + 1;
+        return depth < 0 ? 0 : depth;
+    }
+
+    /**
+     * @return the depth of the buffer while playing, smoothed, in frames
+     */
+    public float getAverageDepth() {
+        return mAverageDepth;
+    }
+
+    /**
+     * @return the number of frames the buffer holds before starting the playback
+     */
+    public int getTargetDepth() {
+        return mTargetDepth;
+    }
+
+    /**
+     * @return the delay the buffer aims for, in milliseconds
+     */
+    public int getTargetDelay() {
+        return mTargetDepth * mFrameMillis;
+    }
+
+    /**
+     * @return how long the frames wait in the buffer before being played,
+     * smoothed, in milliseconds
+     */
+    public float getQueueDelay() {
+        return mQueueDelay;
+    }
+
+    /**
+     * @return the number of frames skipped to reduce the delay
+     */
+    public int getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    /**
+     * @return the smoothed inter-arrival jitter, in milliseconds
+     */
+    public float getJitter() {
+        return mJitter;
+    }
+
+    public int getLateFrames() {
+        return mLateFrames;
+    }
+
+    public int getDiscardedFrames() {
+        return mDiscardedFrames;
+    }
+
+    public int getMissingFrames() {
+        return mMissingFrames;
+    }
+
+    public int getUnderruns() {
+        return mUnderruns;
+    }
+
+    /**
+     * Updates the jitter estimation with the arrival of a frame and adapts
+     * the target depth to it.
+     * @param seq - the sequence number of the frame
+     * @param timestamp - the capture time of the frame, in samples
+     * @param rate - the sample rate of the timestamp
+     * @param arrivalMillis - when the frame arrived
+     */
+    private void updateJitter(int seq, int timestamp, int rate, long arrivalMillis) {
+        if (seqDiff(seq, mLastSeq) <= 0)
+            return;
+
+        // The difference between how far apart the frames arrived and how far
+        // apart they were captured. The sequence numbers cannot tell the
+        // latter: they skip the frames left out during a silence.
+        long captured = (long)(timestamp - mLastTimestamp) * 1000 / rate;
+        long d = (arrivalMillis - mLastArrival) - captured;
+        mJitter += (Math.abs(d) - mJitter) * JITTER_GAIN;
+        mLastSeq = seq;
+        mLastTimestamp = timestamp;
+        mLastArrival = arrivalMillis;
+
+        int desired = 1 + (int)Math.ceil(JITTER_FACTOR * mJitter / mFrameMillis);
+        if (desired < Common.JITTER_MIN_DEPTH)
+            desired = Common.JITTER_MIN_DEPTH;
+        if (desired > Common.JITTER_MAX_DEPTH)
+            desired = Common.JITTER_MAX_DEPTH;
+        if (desired > mMask)
+            desired = mMask;
+
+        if (desired > mTargetDepth) {
+            mTargetDepth = desired;
+            mShrinkCounter = 0;
+        } else if (desired < mTargetDepth) {
+            if (++mShrinkCounter >= SHRINK_DELAY) {
+                mTargetDepth--;
+                mShrinkCounter = 0;
+            }
+        } else {
+            mShrinkCounter = 0;
+        }
+    }
+
+    /**
+     * @return the distance from b to a, taking the wrap around into account
+     */
+    static int seqDiff(int a, int b) {
+        return (short)(a - b);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * This class is a thread that mixes the sound of all the players and plays
+ * the result on a single AudioTrack object.
+ *
+ * Every tick it asks each player for a decoded frame, multiplies it with
+ * the gain of the player, adds it to the mix and finally applies the master
+ * gain. The samples are saturated instead of being let to overflow.
+ * The audio track blocks the writes, so a tick lasts a frame duration.
+ * When no player has anything to play, the mixer parks instead of writing
+ * silence. The receiving threads unpark it when a frame arrives.
+ *
+ * There is a single mixer in the system. It is created when the first player
+ * is added and it ends when the last player is removed.
+ *
+ * On the hub of a group in hub mode, the mixer also hands the frames of the
+ * players to the HubMixer, which sends every member the mix of the others.
+ * The local sound waiting there keeps the mixer from parking.
+ */
+public class Mixer extends Thread {
+    public static final int FRAME_MILLIS = 20;
+    public static final float MAX_GAIN = 2.0f;
+
+    // The gains are applied in fixed point
+    private static final int GAIN_SHIFT = 12;
+    private static final int GAIN_ONE = 1 << GAIN_SHIFT;
+    // The longest park, after which the mixer checks again whether it should exit
+    private static final long MAX_PARK_MILLIS = 500;
+
+    private static final Lock instanceLock = new ReentrantLock();
+    private static volatile Mixer mixer = null;
+    private static volatile HubMixer hubMixer = null;
+    private static float masterGain = (float)0.5;
+
+    private final Lock mLock = new ReentrantLock();
+    private final List<Player> mPlayers = new ArrayList<Player>();
+    private final int mFrameSize;
+    private AudioTrack mAudioTrack = null;
+    private boolean mExit = false;
+    private volatile boolean mParked = false;
+
+    private Mixer() {
+        mFrameSize = Common.SAMPLE_RATE * FRAME_MILLIS / 1000;
+
+        // The track needs room for at least two frames, such that a write
+        // does not wait for the previous frame to be completely played
+        int minLen = AudioTrack.getMinBufferSize(Common.SAMPLE_RATE, Common.CHANNEL_CONFIG,
+                Common.AUDIO_FORMAT);
+        if (minLen < 4 * mFrameSize)
+            minLen = 4 * mFrameSize;
+
+        // Create the audio track and start it
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL,
+                Common.SAMPLE_RATE, Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT,
+                minLen, AudioTrack.MODE_STREAM);
+        mAudioTrack.play();
+    }
+
+    /**
+     * Adds a player to the mix. Creates the mixer if it does not exist.
+     * @param player - the player to add
+     */
+    public static void addPlayer(Player player) {
+        instanceLock.lock();
+        if (mixer == null) {
+            mixer = new Mixer();
+            mixer.start();
+        }
+        mixer.add(player);
+        instanceLock.unlock();
+    }
+
+    /**
+     * Removes a player from the mix. When this method returns the mixer
+     * does not use the player anymore. The mixer ends if no player is left.
+     * @param player - the player to remove
+     */
+    public static void removePlayer(Player player) {
+        instanceLock.lock();
+        if (mixer != null && mixer.remove(player)) {
+            mixer.exit();
+            mixer = null;
+        }
+        instanceLock.unlock();
+    }
+
+    /**
+     * Wakes up the mixer if it is parked. Called after a frame was given to a player.
+     */
+    static void wakeUp() {
+        Mixer current = mixer;
+        if (current != null && current.mParked)
+            LockSupport.unpark(current);
+    }
+
+    /**
+     * Sets the hub mixer that gets the frames of the players on every tick
+     * @param hub - the hub mixer, or null when the device is not a hub
+     */
+    static void setHubMixer(HubMixer hub) {
+        hubMixer = hub;
+    }
+
+    /**
+     * Sets the gain applied to the whole mix
+     * @param gain - between 0 and MAX_GAIN; 1 leaves the mix unchanged
+     */
+    public static void setMasterGain(float gain) {
+        masterGain = clampGain(gain);
+    }
+
+    public static float getMasterGain() {
+        return masterGain;
+    }
+
+    static float clampGain(float gain) {
+        if (gain < 0)
+            return 0;
+        if (gain > MAX_GAIN)
+            return MAX_GAIN;
+        return gain;
+    }
+
+    /**
+     * The thread loop. Mixes a frame from every player and writes the mix to
+     * the audio track.
+     */
+    @Override
+    public void run() {
+        int[] mix = new int[mFrameSize];
+        short[] frame = new short[mFrameSize];
+        short[] out = new short[mFrameSize];
+        boolean idle;
+
+        while (true) {
+            HubMixer hub = hubMixer;
+            mLock.lock();
+            try {
+                if (mExit)
+                    break;
+
+                for (int i = 0; i < mFrameSize; i++)
+                    mix[i] = 0;
+                idle = true;
+                for (int p = 0; p < mPlayers.size(); p++) {
+                    Player player = mPlayers.get(p);
+                    int samples = player.readFrame(frame);
+                    int gain = (int)(player.getGain() * GAIN_ONE);
+                    for (int i = 0; i < samples; i++)
+                        mix[i] += (frame[i] * gain) >> GAIN_SHIFT;
+                    if (samples > 0 || !player.isIdle())
+                        idle = false;
+                    if (hub != null)
+                        hub.setFrame(player, frame, samples);
+                }
+                if (hub != null && !hub.isIdle())
+                    idle = false;
+            } finally {
+                mLock.unlock();
+            }
+
+            // The members get their mix even when the local speaker is silent
+            if (hub != null && !idle)
+                hub.mix();
+
+            if (idle) {
+                park();
+                continue;
+            }
+
+            // Apply the master gain and saturate
+            int gain = (int)(masterGain * GAIN_ONE);
+            for (int i = 0; i < mFrameSize; i++) {
+                int sample = (int)(((long)mix[i] * gain) >> GAIN_SHIFT);
+                if (sample > Short.MAX_VALUE)
+                    sample = Short.MAX_VALUE;
+                else if (sample < Short.MIN_VALUE)
+                    sample = Short.MIN_VALUE;
+                out[i] = (short)sample;
+            }
+
+            mAudioTrack.write(out, 0, mFrameSize);
+        }
+
+        try {
+            mAudioTrack.stop();
+        } catch (IllegalStateException e) {
+            Log.e(Common.TAG, "Error stopping the audio track: " + e.getMessage());
+        }
+        mAudioTrack.release();
+        mAudioTrack = null;
+    }
+
+    /**
+     * Parks the thread until a frame arrives. The flag is raised before the
+     * players are checked again, such that a frame that arrives in between
+     * either is seen here or unparks the thread.
+     */
+    private void park() {
+        mParked = true;
+        if (allIdle())
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(MAX_PARK_MILLIS));
+        mParked = false;
+    }
+
+    private boolean allIdle() {
+        mLock.lock();
+        try {
+            if (mExit)
+                return false;
+            HubMixer hub = hubMixer;
+            if (hub != null && !hub.isIdle())
+                return false;
+            for (int i = 0; i < mPlayers.size(); i++)
+                if (!mPlayers.get(i).isIdle())
+                    return false;
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void add(Player player) {
+        mLock.lock();
+        mPlayers.add(player);
+        mLock.unlock();
+    }
+
+    /**
+     * @return true if no player is left
+     */
+    private boolean remove(Player player) {
+        mLock.lock();
+        mPlayers.remove(player);
+        boolean empty = mPlayers.isEmpty();
+        mLock.unlock();
+        return empty;
+    }
+
+    private void exit() {
+        mLock.lock();
+        mExit = true;
+        mLock.unlock();
+        LockSupport.unpark(this);
+    }
+}
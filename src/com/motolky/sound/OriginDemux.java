@@ -0,0 +1,84 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.motolky.communication.FrameFormat;
+import com.motolky.communication.IReceiveHandler;
+
+/**
+ * Receives the frames of a link that carries the sound of several members,
+ * such as the link with a relay, or the frames of all the links in
+ * multi-hop mode. Every origin gets a player of its own, created when its
+ * first frame arrives, and the mixer mixes them as if every member had its
+ * own link.
+ *
+ * The frames come from a single receiving thread, or from the mesh
+ * forwarder, which hands them over one thread at a time. The lock is only
+ * taken when a player is created, such that no player is created after exit().
+ */
+public class OriginDemux implements IReceiveHandler {
+    private final Player[] mPlayers = new Player[FrameFormat.MAX_ORIGINS];
+    private final Lock mLock = new ReentrantLock();
+    private boolean mExit = false;
+
+    @Override
+    public void receiveFrame(byte[] buffer, int offset, int length) throws IOException {
+        int origin = FrameFormat.getOrigin(buffer, offset);
+        Player player = mPlayers[origin];
+        if (player == null) {
+            mLock.lock();
+            try {
+                if (mExit)
+                    return;
+                player = Player.getNewPlayer();
+                mPlayers[origin] = player;
+            } finally {
+                mLock.unlock();
+            }
+        }
+        player.receiveFrame(buffer, offset, length);
+    }
+
+    /**
+     * Deletes the players of all the origins
+     */
+    public void exit() {
+        mLock.lock();
+        mExit = true;
+        for (int i = 0; i < mPlayers.length; i++)
+            if (mPlayers[i] != null) {
+                Player.deletePlayer(mPlayers[i]);
+                mPlayers[i] = null;
+            }
+        mLock.unlock();
+    }
+}
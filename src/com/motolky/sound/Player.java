@@ -28,181 +28,369 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.motolky.sound;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-import android.media.AudioManager;
-import android.media.AudioTrack;
+
 import android.util.Log;
 
 import com.motolky.Common;
+import com.motolky.communication.FrameFormat;
 import com.motolky.communication.IReceiveHandler;
 
 /**
- * This class creates an AudioTrack object and sends sound data
- * to it whenever it receives some audio data.
+ * This class receives the sound frames of a peer. It keeps them in a jitter
+ * buffer and decodes them when the mixer asks for the next frame to play.
+ * Every frame is decoded with the codec named in its header, at the sample
+ * rate given by its flags; the decoders are created the first time a codec
+ * is seen. A frame sampled at another rate than the local one is converted,
+ * such that narrowband and wideband peers can talk together.
+ *
+ * The frames are handed from the receiving thread to the mixer through a
+ * single producer, single consumer ring, so no lock is taken per frame.
+ * The jitter buffer is only touched by the mixer.
+ *
+ * When the frame to be played is missing, the decoder conceals the loss,
+ * for at most Common.MAX_CONCEALED_FRAMES frames in a row. After that the
+ * player stays silent until a frame arrives.
+ *
+ * A comfort noise frame means the peer stopped sending because its user is
+ * silent. Until the next speech frame, the gaps are filled with noise of
+ * the level given in the frame instead of being concealed.
+ *
+ * The clock of the peer never runs at exactly the rate of the local
+ * playback. A DriftEstimator follows the difference from the timestamps of
+ * the frames, and the decoded sound goes through a Resampler that plays the
+ * frames of the peer at its own pace.
+ *
+ * When Common.ENABLE_TIME_SCALING is set, a TimeScaler changes the tempo of
+ * the sound before it is resampled: it plays faster while the jitter buffer
+ * holds more than its target, after a burst of frames, and slower when it
+ * runs low, such that it does not run empty.
  */
-public class Player extends Thread implements IReceiveHandler {
-    private static final List<Player> createdPlayers = new LinkedList<Player>();
-    private static float volume = (float)0.5;
-
-    private AudioTrack mAudioTrack = null;
-    private float mMaxVolume;
-    private float mMinVolume;
-    private final Lock mLock = new ReentrantLock();
-    private final Lock mAudioLock = new ReentrantLock();
-
-    private PlayerBuffer mBuffer;
-    private Condition mCondition = mLock.newCondition();
-    private Codec mDecoder = null;
-    private boolean mExit = false;
+public class Player implements IReceiveHandler {
+    private FrameRing mRing;
+    private JitterBuffer mJitterBuffer;
+    private byte[] mFrame;
+    // The narrowband decoders, followed by the wideband ones
+    private final Codec[] mDecoders = new Codec[512];
+    private final boolean[] mUnsupported = new boolean[512];
+    private Codec mLastDecoder = null;
+    private int mLastRate = 0;
+    // Where the frames sampled at another rate are decoded before being converted
+    private final short[] mConverted = new short[Common.WIDEBAND_RATE * Mixer.FRAME_MILLIS / 1000];
+    private float mGain = 1;
+    private volatile boolean mExit = false;
+    // Starts at the limit, such that nothing is concealed before the first frame
+    private int mConsecutiveConcealed = Common.MAX_CONCEALED_FRAMES;
+    private int mConcealedFrames = 0;
+    private final ComfortNoise mComfortNoise = new ComfortNoise();
+    private boolean mComfortNoiseOn = false;
+    private float mNoiseRms = 0;
+    private final int mFrameSamples = Common.SAMPLE_RATE * Mixer.FRAME_MILLIS / 1000;
+    private final DriftEstimator mDriftEstimator = new DriftEstimator(Common.SAMPLE_RATE);
+    private final Resampler mResampler = new Resampler(mFrameSamples);
+    // The speed while the jitter buffer holds a couple of frames too many
+    private static final float CATCH_UP_SPEED = 1.1f;
+    // How far the smoothed depth may be from the target at the normal tempo
+    private static final float SPEED_DEAD_BAND = 1;   // frames
+    // How many ticks the tempo asked for must stay the same before it is used
+    private static final int SPEED_CHANGE_TICKS = 5;
+    private float mSpeed = 1;
+    private int mSpeedTicks = 0;
+    // Written by the receiving thread, read by the mixer
+    private volatile double mDriftRatio = 1;
+    // The local playback clock: the samples asked by the mixer so far, and
+    // when the mixer last asked for some
+    private volatile long mPlayedSamples = 0;
+    private volatile long mTickNanos = System.nanoTime();
+    private final Resampler.Source mSource = new Resampler.Source() {
+        @Override
+        public int read(short[] out, int offset) {
+            return decodeFrame(out, offset);
+        }
+    };
+    private final TimeScaler mTimeScaler =
+            new TimeScaler(mSource, mFrameSamples, Common.SAMPLE_RATE);
 
     protected Player() {
-        int minLen = AudioTrack.getMinBufferSize(Common.SAMPLE_RATE, Common.CHANNEL_CONFIG,
-                Common.AUDIO_FORMAT);
-
-        // Crate the audio track and start it
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL,
-                Common.SAMPLE_RATE, Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT,
-                minLen, AudioTrack.MODE_STREAM);
-        mAudioTrack.play();
-        mMaxVolume = AudioTrack.getMaxVolume();
-        mMinVolume = AudioTrack.getMinVolume();
-        float initialVolume = mMinVolume + (mMaxVolume - mMinVolume) * volume;
-        mAudioTrack.setStereoVolume(initialVolume, initialVolume);
-
-        // Create a decoder for the data the player receives from the outside
-        try
-        {
-            mDecoder = new SoundDecoder();
-            mBuffer = new PlayerBuffer(2 * mDecoder.getSampleSize());
-        } catch (Exception e) {
-            while (true)
-            {
-                Log.e(Common.TAG, "Error creating the encoder");
-                e.printStackTrace();
-            }
-        }
+        // The buffers hold whole frames, header included, at any sample rate
+        int frameSamples = Common.WIDEBAND_RATE * Mixer.FRAME_MILLIS / 1000;
+        mFrame = new byte[FrameFormat.HEADER_LEN + 2 * frameSamples];
+        mRing = new FrameRing(Common.RECEIVE_RING_FRAMES, mFrame.length);
+        mJitterBuffer = new JitterBuffer(Common.JITTER_BUFFER_FRAMES, mFrame.length,
+                Mixer.FRAME_MILLIS);
     }
 
     /**
-     * This method is called by the peer when data has been received from the
+     * This method is called by the peer when a frame has been received from the
      * socket.
      */
     @Override
-    public void receiveData(byte[] buffer, int bytes) throws IOException {
-        this.mAudioLock.lock();
-        if (this.mAudioTrack == null) {
-          this.mAudioLock.unlock();
-          throw new IOException("The audio track was closed already");
-        }
-        this.mAudioLock.unlock();
+    public void receiveFrame(byte[] buffer, int offset, int length) throws IOException {
+        // Frames encoded with a codec this device does not have are dropped
+        if ((FrameFormat.getFlags(buffer, offset) & FrameFormat.FLAG_COMFORT_NOISE) == 0 &&
+                !CodecFactory.isSupported(FrameFormat.getCodec(buffer, offset)))
+            return;
 
-        // Insert the data to the buffer. The thread will late pick it up,
-        // decode it and play it.
-        this.mLock.lock();
-        this.mBuffer.insertData(buffer, bytes);
-        this.mCondition.signal();
-        this.mLock.unlock();
+        // Put the frame in the ring. The mixer will later move it to the
+        // jitter buffer, decode it and play it.
+        if (this.mExit)
+            throw new IOException("The player was closed already");
+        int rate = (FrameFormat.getFlags(buffer, offset) & FrameFormat.FLAG_WIDEBAND) != 0 ?
+                Common.WIDEBAND_RATE : Common.NARROWBAND_RATE;
+        int timestamp = FrameFormat.getTimestamp(buffer, offset);
+        this.mDriftEstimator.update(timestamp, rate, getPlaybackPosition());
+        this.mDriftRatio = this.mDriftEstimator.getRatio();
+        this.mRing.offer(FrameFormat.getSequence(buffer, offset), timestamp, rate, buffer,
+                offset, length, System.currentTimeMillis());
+        Mixer.wakeUp();
     }
 
     /**
-     * Factory for creating a player. Internally this class
-     * remembers the players that are currently active in the system.
+     * @return the jitter buffer of this player, for reading its statistics,
+     * like the target delay and the queueing delay of this peer
+     */
+    public JitterBuffer getJitterBuffer() {
+        return mJitterBuffer;
+    }
+
+    /**
+     * Factory for creating a player. The player is added to the mixer.
      * @return the created player
      */
     public static Player getNewPlayer() {
         Player player = new Player();
-        createdPlayers.add(player);
-        player.start();
+        Mixer.addPlayer(player);
         return player;
     }
 
     /**
-     * Removes a player from the list of created players.
+     * Removes a player from the mixer.
      * @param player - player to remove
      */
     public static void deletePlayer(Player player) {
-        createdPlayers.remove(player);
+        Mixer.removePlayer(player);
         player.exit();
     }
 
+    /**
+     * Sets the volume of all the players
+     * @param progress - between 0 and 1
+     */
     public static void setVolume(float progress) {
-        volume = progress;
-        for (Player player : createdPlayers)
-            player.adjustVolume();
+        Mixer.setMasterGain(progress);
     }
 
     /**
-     * This loop continuously reads data from the buffer of the player,
-     * decodes it and sends it to the audio track object.
+     * Sets the gain of this player in the mix
+     * @param gain - between 0 and Mixer.MAX_GAIN
      */
-    @Override
-    public void run() {
-        while (true)
-        {
-            if (mExit)
-                return;
-
-            try
-            {
-                // Ask for a frame from the buffer
-                mCondition.await();
-                mLock.lock();
-                byte[] frame = mBuffer.getFrame();
-                if (frame == null) {
-                    mLock.unlock();
-                    continue;
+    public void setGain(float gain) {
+        mGain = Mixer.clampGain(gain);
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    /**
+     * Called by the mixer every tick. Takes the next frame from the jitter
+     * buffer and decodes it, or conceals it if it is missing, then resamples
+     * it to follow the clock of the peer. Nothing is allocated on this path:
+     * the frame goes through buffers of the player and, while no resampling
+     * is needed, is decoded straight in the buffer of the mixer.
+     * @param out - where to put the decoded samples
+     * @return the number of decoded samples, 0 if there is nothing to play
+     */
+    int readFrame(short[] out) {
+        mRing.drainTo(mJitterBuffer);
+        if (Common.ENABLE_TIME_SCALING)
+            mTimeScaler.setSpeed(chooseSpeed());
+        mResampler.setRatio(mDriftRatio);
+        int samples = mResampler.process(out, mFrameSamples, mTimeScaler);
+        mPlayedSamples += mFrameSamples;
+        mTickNanos = System.nanoTime();
+        return samples;
+    }
+
+    /**
+     * Chooses the tempo from how far the smoothed depth of the jitter buffer
+     * is from its target. Within SPEED_DEAD_BAND of the target the tempo is
+     * normal, and a new tempo is only used once it was asked for during
+     * SPEED_CHANGE_TICKS ticks in a row, such that the usual jitter of a
+     * frame or so does not keep the time scaling on.
+     * @return the speed to play at
+     */
+    private float chooseSpeed() {
+        float excess = mJitterBuffer.getAverageDepth() - mJitterBuffer.getTargetDepth();
+        float speed = 1;
+        if (excess >= 4)
+            speed = TimeScaler.MAX_SPEED;
+        else if (excess > SPEED_DEAD_BAND)
+            speed = CATCH_UP_SPEED;
+        else if (excess < -SPEED_DEAD_BAND && mJitterBuffer.getDepth() > 0)
+            speed = TimeScaler.MIN_SPEED;
+
+        if (speed == mSpeed || ++mSpeedTicks < SPEED_CHANGE_TICKS) {
+            if (speed == mSpeed)
+                mSpeedTicks = 0;
+            return mSpeed;
+        }
+        mSpeed = speed;
+        mSpeedTicks = 0;
+        return mSpeed;
+    }
+
+    /**
+     * @return the samples played locally so far, including the part of the
+     * current frame already played. Called by the receiving thread.
+     */
+    private long getPlaybackPosition() {
+        long tick = this.mTickNanos;
+        long played = this.mPlayedSamples;
+        long elapsed = (System.nanoTime() - tick) * Common.SAMPLE_RATE / 1000000000L;
+        return played + Math.max(0, Math.min(mFrameSamples, elapsed));
+    }
+
+    /**
+     * Decodes the next frame of the jitter buffer, or conceals it
+     * @param out - where to put the decoded samples
+     * @param offset - where the samples start in out
+     * @return the number of decoded samples, 0 if there is nothing to play
+     */
+    private int decodeFrame(short[] out, int offset) {
+        int len = mJitterBuffer.getFrame(mFrame);
+        if (len >= 0 && (FrameFormat.getFlags(mFrame, 0) & FrameFormat.FLAG_COMFORT_NOISE) != 0) {
+            mComfortNoiseOn = true;
+            mNoiseRms = ComfortNoise.levelToRms(mFrame[FrameFormat.getPayloadOffset(mFrame, 0)] & 0xFF);
+            mConsecutiveConcealed = Common.MAX_CONCEALED_FRAMES;
+        } else if (len >= 0) {
+            int rate = (FrameFormat.getFlags(mFrame, 0) & FrameFormat.FLAG_WIDEBAND) != 0 ?
+                    Common.WIDEBAND_RATE : Common.NARROWBAND_RATE;
+            Codec decoder = getDecoder(FrameFormat.getCodec(mFrame, 0), rate);
+            if (decoder != null) {
+                int samples;
+                if (rate == Common.SAMPLE_RATE) {
+                    samples = decoder.decodeInto(mFrame, FrameFormat.getPayloadOffset(mFrame, 0),
+                            FrameFormat.getPayloadLength(mFrame, 0), out, offset);
+                } else {
+                    samples = decoder.decodeInto(mFrame, FrameFormat.getPayloadOffset(mFrame, 0),
+                            FrameFormat.getPayloadLength(mFrame, 0), mConverted, 0);
+                    samples = convertRate(mConverted, samples, rate, out, offset);
+                }
+                if (samples > 0) {
+                    mLastDecoder = decoder;
+                    mLastRate = rate;
+                    mConsecutiveConcealed = 0;
+                    mComfortNoiseOn = false;
+                    return samples;
                 }
-                mLock.unlock();
-
-                // Decode the frame
-                short[] decoded = mDecoder.decodeAndGetDecoded(frame, frame.length);
-                if (decoded == null)
-                    continue;
-
-                // Send the decoded frame to the audio track
-                mAudioLock.lock();
-                if (mAudioTrack != null)
-                    mAudioTrack.write(decoded, 0, decoded.length);
-                mAudioLock.unlock();
-            }
-            catch (InterruptedException e)
-            {
-                mLock.unlock();
             }
         }
+
+        // While the peer is silent, there is nothing to conceal
+        if (mComfortNoiseOn) {
+            mComfortNoise.generate(out, offset, mFrameSamples, mNoiseRms);
+            return mFrameSamples;
+        }
+
+        // A gap right after the voice was playing is concealed, whether a
+        // frame is missing, could not be decoded or the buffer ran empty
+        if (mConsecutiveConcealed >= Common.MAX_CONCEALED_FRAMES || mLastDecoder == null)
+            return 0;
+        int samples;
+        if (mLastRate == Common.SAMPLE_RATE)
+            samples = mLastDecoder.conceal(out, offset);
+        else
+            samples = convertRate(mConverted, mLastDecoder.conceal(mConverted, 0), mLastRate,
+                    out, offset);
+        if (samples <= 0) {
+            mConsecutiveConcealed = Common.MAX_CONCEALED_FRAMES;
+            return 0;
+        }
+        mConsecutiveConcealed++;
+        mConcealedFrames++;
+        return samples;
     }
 
     /**
-     * Stops the thread
+     * Gets the decoder of a codec, creating it if needed. Called by the mixer.
+     * @param codecId - the id of the codec, as sent in the frame headers
+     * @param rate - the sample rate of the frames
+     * @return the decoder, or null if it could not be created
      */
-    private void exit() {
-        this.mAudioLock.lock();
-
-        try {
-            this.mAudioTrack.stop();
-            this.mAudioTrack.release();
-            this.mAudioTrack = null;
-            this.mAudioLock.unlock();
-
-            this.mLock.lock();
-            this.mDecoder.exit();
-            this.mExit = true;
-            this.mCondition.signal();
-            this.mLock.unlock();
-        } catch (IllegalStateException localIllegalStateException) {
-            this.mAudioTrack.release();
+    private Codec getDecoder(int codecId, int rate) {
+        int index = rate == Common.WIDEBAND_RATE ? 256 + codecId : codecId;
+        Codec decoder = mDecoders[index];
+        if (decoder == null && !mUnsupported[index]) {
+            decoder = CodecFactory.createDecoder(codecId, rate);
+            if (decoder == null)
+                mUnsupported[index] = true;
+            mDecoders[index] = decoder;
         }
+        return decoder;
     }
 
-    private void adjustVolume() {
-        this.mAudioLock.lock();
-        float v = mMinVolume + (mMaxVolume - mMinVolume) * volume;
-        mAudioTrack.setStereoVolume(v, v);
-        this.mAudioLock.unlock();
+    /**
+     * Converts a frame between narrowband and wideband. The wideband samples
+     * are averaged in pairs; the narrowband ones are interpolated linearly.
+     * @param in - the samples to convert
+     * @param samples - how many samples in holds
+     * @param rate - the sample rate of in; out is at Common.SAMPLE_RATE
+     * @param out - where to write the converted samples
+     * @param offset - where the converted samples start in out
+     * @return the number of samples written in out
+     */
+    private static int convertRate(short[] in, int samples, int rate, short[] out, int offset) {
+        if (samples <= 0)
+            return 0;
+        if (rate > Common.SAMPLE_RATE) {
+            for (int i = 0; i < samples / 2; i++)
+                out[offset + i] = (short)((in[2 * i] + in[2 * i + 1]) >> 1);
+            return samples / 2;
+        }
+        for (int i = 0; i < samples; i++) {
+            int next = i + 1 < samples ? in[i + 1] : in[i];
+            out[offset + 2 * i] = in[i];
+            out[offset + 2 * i + 1] = (short)((in[i] + next) >> 1);
+        }
+        return 2 * samples;
+    }
+
+    /**
+     * @return the number of frames this player concealed
+     */
+    public int getConcealedFrames() {
+        return mConcealedFrames;
+    }
+
+    /**
+     * Called by the mixer.
+     * @return true if the player has no frame to play and none is buffering
+     */
+    boolean isIdle() {
+        return mRing.isEmpty() && mJitterBuffer.getDepth() == 0;
+    }
+
+    /**
+     * Releases the decoder. The player must not be in the mixer anymore.
+     */
+    private void exit() {
+        this.mExit = true;
+        Log.d(Common.TAG, "Jitter buffer: target depth " + mJitterBuffer.getTargetDepth() +
+                " (" + mJitterBuffer.getTargetDelay() + " ms), queueing delay " +
+                mJitterBuffer.getQueueDelay() + " ms, skipped " + mJitterBuffer.getSkippedFrames() +
+                ", jitter " + mJitterBuffer.getJitter() + " ms, late " + mJitterBuffer.getLateFrames() +
+                ", discarded " + mJitterBuffer.getDiscardedFrames() +
+                ", missing " + mJitterBuffer.getMissingFrames() +
+                ", underruns " + mJitterBuffer.getUnderruns() +
+                ", ring drops " + mRing.getDropped() +
+                ", concealed " + mConcealedFrames +
+                ", clock drift " + mDriftEstimator.getDriftPpm() + " ppm" +
+                ", drift jumps " + mDriftEstimator.getJumps() +
+                ", time scaled frames " + mTimeScaler.getScaledFrames() +
+                ", " + mTimeScaler.getAverageMicros() + " us per frame, at most " +
+                mTimeScaler.getMaxMicros() + " us");
+        for (Codec decoder : this.mDecoders)
+            if (decoder != null)
+                decoder.exit();
     }
 }
@@ -27,8 +27,6 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.motolky.sound;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -43,26 +41,86 @@ import com.motolky.communication.ISendHandler;
  * This class is a thread that creates an AudioRecord object.
  * It continuously reads data from this object and sends it
  * to the handlers that have registered to it.
+ *
+ * On the hub of a group in hub mode, the sound is not encoded here. It goes
+ * to the HubMixer instead, which sends it inside the mix of every member.
  */
 public class RecordThread extends Thread {
+    /**
+     * Where the thread reads the sound from
+     */
+    interface SampleSource {
+        /**
+         * Reads samples
+         * @param buffer - where to write the samples
+         * @param offset - where the samples start in buffer
+         * @param length - how many samples to read
+         * @return the number of samples read
+         */
+        int read(short[] buffer, int offset, int length);
+    }
+
     private AudioRecord mAudioRecord = null;
     private boolean mExit = false;
     private ISoundProcessor mSoundProcessor = null;
-    private List<ISendHandler> mSendHandlers = null;
+    // Copied on every change, such that sending to the handlers does not allocate
+    private ISendHandler[] mSendHandlers = null;
     private final Lock mLock = new ReentrantLock();
     private boolean mRecord = true;
+    // The quality step of every layer: the worst one asked by the links sending it
+    private int[] mQualitySteps = null;
+    private HubMixer mHubMixer = null;
+
+    // The buffers of a read, allocated once. A read holds whole frames,
+    // which the sound processor encodes in place.
+    private final short[] mReadBuffer;
+    private final byte[][] mProcBuffers;
+    private final int[] mProcLens;
+    private final int[] mLayerRates;
+    // The lowest layer of the previous read, which the lossy links send again
+    private final byte[] mPrevious = new byte[Common.MAX_PACKET_LEN];
+    private int mPreviousLen = 0;
+
+    // The microphone. It is read under the lock, such that it is not
+    // released meanwhile.
+    private final SampleSource mMicrophone = new SampleSource() {
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            mLock.lock();
+            try {
+                return mAudioRecord.read(buffer, offset, length);
+            } finally {
+                mLock.unlock();
+            }
+        }
+    };
 
     /**
-     * Constructor
-     * @param maxBufferLen - the maximum length of the sournd processor
+     * Constructor. The microphone is read at Common.SAMPLE_RATE, in
+     * Common.FRAMES_PER_READ frames of the codec at a time.
      */
-    public RecordThread(int maxBufferLen) {
-        mSendHandlers = new ArrayList<ISendHandler>();
+    public RecordThread() {
+        this(new SoundProcessor(Common.FRAMES_PER_READ));
         mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
                 Common.SAMPLE_RATE, Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT,
                 AudioRecord.getMinBufferSize(Common.SAMPLE_RATE,
                         Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT) + 4096);
-        mSoundProcessor = new SoundProcessor(maxBufferLen);
+    }
+
+    /**
+     * Constructor that does not open the microphone. The sound is given
+     * to capture() instead.
+     * @param soundProcessor - the processor that encodes the sound
+     */
+    RecordThread(ISoundProcessor soundProcessor) {
+        mSendHandlers = new ISendHandler[0];
+        mSoundProcessor = soundProcessor;
+        int layers = mSoundProcessor.getLayers();
+        mQualitySteps = new int[layers];
+        mReadBuffer = new short[Common.FRAMES_PER_READ * mSoundProcessor.getFrameSize()];
+        mProcBuffers = new byte[layers][Common.MAX_PACKET_LEN];
+        mProcLens = new int[layers];
+        mLayerRates = new int[layers];
     }
 
     /**
@@ -72,22 +130,56 @@ public class RecordThread extends Thread {
     public void addSendHandler(ISendHandler sendHandler) {
         mLock.lock();
         if (mSendHandlers != null) {
-            mSendHandlers.add(sendHandler);
+            ISendHandler[] sendHandlers = new ISendHandler[mSendHandlers.length + 1];
+            System.arraycopy(mSendHandlers, 0, sendHandlers, 0, mSendHandlers.length);
+            sendHandlers[mSendHandlers.length] = sendHandler;
+            mSendHandlers = sendHandlers;
             if (mAudioRecord != null && mRecord && mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED)
                 mAudioRecord.startRecording();
         }
         mLock.unlock();
     }
 
+    /**
+     * Register the link of a member of the group. When the local device is
+     * the hub, the member gets the mix of the others on it.
+     * @param sendHandler - the link with the member
+     * @param player - the player of the sound of the member
+     */
+    public void addSendHandler(ISendHandler sendHandler, Player player) {
+        if (mHubMixer != null)
+            mHubMixer.addMember(player, sendHandler);
+        addSendHandler(sendHandler);
+    }
+
+    /**
+     * Makes the local device the hub of the group. Must be called before
+     * the thread starts.
+     */
+    public void startHub() {
+        mHubMixer = new HubMixer();
+        Mixer.setHubMixer(mHubMixer);
+    }
+
     /**
      * Unregister a handler
      * @param sendHandler
      */
     public void removeSendHandler(ISendHandler sendHandler) {
+        if (mHubMixer != null)
+            mHubMixer.removeMember(sendHandler);
         mLock.lock();
         if (mSendHandlers != null) {
-            mSendHandlers.remove(sendHandler);
-            if (mSendHandlers.isEmpty() && mAudioRecord != null &&
+            for (int i = 0; i < mSendHandlers.length; i++) {
+                if (mSendHandlers[i] != sendHandler)
+                    continue;
+                ISendHandler[] sendHandlers = new ISendHandler[mSendHandlers.length - 1];
+                System.arraycopy(mSendHandlers, 0, sendHandlers, 0, i);
+                System.arraycopy(mSendHandlers, i + 1, sendHandlers, i, sendHandlers.length - i);
+                mSendHandlers = sendHandlers;
+                break;
+            }
+            if (mSendHandlers.length == 0 && mAudioRecord != null &&
                     mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
                 mAudioRecord.stop();
         }
@@ -111,7 +203,13 @@ public class RecordThread extends Thread {
             mExit = true;
             mSendHandlers = null;
             mLock.unlock();
+            Log.d(Common.TAG, "Silent frames not sent: " +
+                    (int)(100 * this.mSoundProcessor.getSuppressedFraction()) + "%");
             this.mSoundProcessor.exit();
+            if (mHubMixer != null) {
+                Mixer.setHubMixer(null);
+                mHubMixer.exit();
+            }
         } catch (Exception e) {
             Log.e(Common.TAG, e.getMessage());
         }
@@ -124,8 +222,6 @@ public class RecordThread extends Thread {
      */
     @Override
     public void run() {
-        short[] buffer = new short[Common.AUDIO_BUFFER_LEN];
-        byte[] procBuffer = new byte[buffer.length*2];
         try {
             while (!mExit) {
                 // Only record if the mic is in recording state
@@ -139,18 +235,7 @@ public class RecordThread extends Thread {
                     sleep(500);
                 }
 
-                // Get data from the microphone
-                mLock.lock();
-                int no = mAudioRecord.read(buffer, 0, Common.AUDIO_BUFFER_LEN);
-                mLock.unlock();
-
-                // Feed the data to the sound processor and get some processed sound back
-                mSoundProcessor.addRawSound(buffer, no);
-                no = mSoundProcessor.getProcessedSound(procBuffer, Common.AUDIO_BUFFER_LEN);
-
-                // If there is some processed data available, send it to the handlers
-                if (no > 0)
-                    sendTraffic(procBuffer, no);
+                capture(mMicrophone);
             }
         } catch (Exception e) {
             Log.e(Common.TAG, "Exception reading audio record: " + e.getMessage());
@@ -161,6 +246,44 @@ public class RecordThread extends Thread {
         }
     }
 
+    /**
+     * Reads the sound of a read from a source, feeds it to the sound
+     * processor and sends the processed sound to the handlers. Nothing is
+     * allocated here, the thread loop runs it for every read.
+     * @param source - where to read the sound from
+     * @return the number of samples read
+     */
+    int capture(SampleSource source) {
+        int no = source.read(mReadBuffer, 0, mReadBuffer.length);
+
+        // The hub sends its sound in the mix of every member
+        if (mHubMixer != null) {
+            if (no > 0) {
+                mHubMixer.addLocalSound(mReadBuffer, no);
+                Mixer.wakeUp();
+            }
+            return no;
+        }
+
+        // Feed the data to the sound processor and get some processed
+        // sound back, in every layer
+        int layers = mProcBuffers.length;
+        mSoundProcessor.addRawSound(mReadBuffer, no);
+        for (int i = 0; i < layers; i++) {
+            mProcLens[i] = mSoundProcessor.getProcessedSound(i, mProcBuffers[i],
+                    mProcBuffers[i].length);
+            mLayerRates[i] = mSoundProcessor.getLayerRate(i);
+        }
+
+        // If there is some processed data available, send it to the handlers
+        if (mProcLens[0] > 0) {
+            sendTraffic(mProcBuffers, mProcLens, mLayerRates, mPrevious, mPreviousLen);
+            mPreviousLen = mProcLens[layers - 1];
+            System.arraycopy(mProcBuffers[layers - 1], 0, mPrevious, 0, mPreviousLen);
+        }
+        return no;
+    }
+
     /**
      * Change the state of the recording. Turn it on/off
      * @param state
@@ -177,21 +300,42 @@ public class RecordThread extends Thread {
                 mAudioRecord.stop();
         } else {
             if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED &&
-                    !mSendHandlers.isEmpty())
+                    mSendHandlers.length > 0)
                 mAudioRecord.startRecording();
         }
         mLock.unlock();
     }
 
     /**
-     * Send data to all the handlers
-     * @param data
-     * @param no
+     * Send data to all the handlers. Every handler gets the layer it chooses,
+     * along with the lowest layer of the previous data, which it sends again
+     * if its link is lossy.
+     * The quality of every layer is then lowered as much as the most
+     * congested link sending it asks for.
+     * The handlers queue the data and return immediately, so the lock is not
+     * held while writing on a socket.
+     * @param data - the data of every layer
+     * @param no - the length of the data of every layer
+     * @param layerRates - the bitrate of every layer
+     * @param previous - the lowest layer of the previous data
+     * @param previousNo - the length of the previous data
      */
-    private void sendTraffic(byte[] data, int no) {
+    private void sendTraffic(byte[][] data, int[] no, int[] layerRates,
+                             byte[] previous, int previousNo) {
         mLock.lock();
-        for (ISendHandler sendHandler : mSendHandlers)
-            sendHandler.sendData(data, no);
+        for (int i = 0; i < mQualitySteps.length; i++)
+            mQualitySteps[i] = 0;
+        for (int i = 0; i < mSendHandlers.length; i++) {
+            ISendHandler sendHandler = mSendHandlers[i];
+            int layer = sendHandler.selectLayer(layerRates, data.length);
+            if (layer < 0 || layer >= data.length || no[layer] == 0)
+                layer = 0;
+            sendHandler.sendData(data[layer], no[layer], previous, previousNo);
+            mQualitySteps[layer] = Math.max(mQualitySteps[layer], sendHandler.getQualityStep());
+        }
         mLock.unlock();
+
+        for (int i = 0; i < mQualitySteps.length; i++)
+            mSoundProcessor.setQualityStep(i, mQualitySteps[i]);
     }
 }
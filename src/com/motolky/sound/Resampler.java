@@ -0,0 +1,125 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class changes the sample rate of a stream by a ratio close to 1, to
+ * follow the clock of a peer. It pulls whole frames from a source and
+ * interpolates linearly between their samples, which is cheap and good
+ * enough for the ratios caused by clock drift. Nothing is allocated while
+ * resampling: the samples are kept in a buffer holding two frames.
+ *
+ * When the source runs out in the middle of an output frame, the samples
+ * produced so far are kept along with the input still needed, and the
+ * frame is finished when the source gives more, such that no sample is
+ * lost at the boundary.
+ */
+public class Resampler {
+    /**
+     * Where the resampler takes its frames from
+     */
+    interface Source {
+        /**
+         * Writes the next frame
+         * @param out - where to write the samples
+         * @param offset - where the samples start in out
+         * @return the number of samples written, 0 if there is nothing to play
+         */
+        int read(short[] out, int offset);
+    }
+
+    private final short[] mBuffer;
+    private int mCount = 0;
+    // Where the next output sample is, in mBuffer
+    private double mPosition = 0;
+    private double mRatio = 1;
+    // The output frame the source ran out in the middle of
+    private final short[] mPartial;
+    private int mPartialLen = 0;
+
+    /**
+     * Constructor
+     * @param maxFrame - the largest number of samples the source gives at once
+     */
+    public Resampler(int maxFrame) {
+        mBuffer = new short[2 * maxFrame + 2];
+        mPartial = new short[mBuffer.length];
+    }
+
+    /**
+     * @param ratio - how many input samples make an output sample
+     */
+    public void setRatio(double ratio) {
+        mRatio = ratio;
+    }
+
+    /**
+     * Produces a frame at the output rate
+     * @param out - where to write the samples
+     * @param samples - how many samples to produce
+     * @param source - where to take the input frames from
+     * @return the number of samples written in out, 0 if the source ran out
+     * before the frame was complete
+     */
+    int process(short[] out, int samples, Source source) {
+        // Nothing to resample: read the frame straight into out
+        if (mRatio == 1 && mCount == 0 && mPartialLen == 0)
+            return source.read(out, 0);
+
+        // Finish the frame the source ran out in the middle of
+        int start = Math.min(mPartialLen, samples);
+        System.arraycopy(mPartial, 0, out, 0, start);
+        mPartialLen = 0;
+
+        for (int i = start; i < samples; i++) {
+            int index = (int)mPosition;
+            while (index + 1 >= mCount) {
+                // Keep the samples still needed and read a new frame after them
+                int keep = Math.max(0, mCount - index);
+                System.arraycopy(mBuffer, mCount - keep, mBuffer, 0, keep);
+                mPosition -= mCount - keep;
+                mCount = keep;
+                index = (int)mPosition;
+
+                int read = source.read(mBuffer, mCount);
+                if (read <= 0) {
+                    // Keep what was produced until the source gives more
+                    mPartialLen = Math.min(i, mPartial.length);
+                    System.arraycopy(out, 0, mPartial, 0, mPartialLen);
+                    return 0;
+                }
+                mCount += read;
+            }
+
+            double fraction = mPosition - index;
+            out[i] = (short)(mBuffer[index] + fraction * (mBuffer[index + 1] - mBuffer[index]));
+            mPosition += mRatio;
+        }
+        return samples;
+    }
+}
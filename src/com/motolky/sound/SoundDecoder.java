@@ -29,6 +29,8 @@ package com.motolky.sound;
 
 import java.security.InvalidParameterException;
 
+import com.motolky.Common;
+
 /**
  * This class is used for decoding audio data. It is an interface to
  * the speex library. It uses the JNI interface, because we used the C
@@ -37,13 +39,23 @@ import java.security.InvalidParameterException;
  */
 public class SoundDecoder extends Codec
 {
-    private int mId = createDecoder();
+    private int mId;
 
     static {
         System.loadLibrary("speex");
     }
 
     public SoundDecoder() throws Exception {
+        this(Common.SAMPLE_RATE);
+    }
+
+    /**
+     * Constructor
+     * @param sampleRate - the sample rate of the frames to decode, narrowband
+     * or wideband
+     */
+    public SoundDecoder(int sampleRate) throws Exception {
+        mId = createDecoder(sampleRate == Common.WIDEBAND_RATE);
         if (mId < 0)
             throw new Exception("There is no empty decoder slot");
         mFrameSize = getDecoderFrameSize(mId);
@@ -53,20 +65,41 @@ public class SoundDecoder extends Codec
     public short[] decodeAndGetDecoded(byte[] data, int no)
             throws InvalidParameterException {
         short[] buf = new short[getSampleSize()];
-        if (!decode(this.mId, data, no, buf))
+        if (decodeInto(data, 0, no, buf, 0) == 0)
             return null;
         return buf;
     }
 
+    @Override
+    public int decodeInto(byte[] data, int offset, int no, short[] out, int outOffset)
+            throws InvalidParameterException {
+        if (outOffset + getSampleSize() > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+        if (!decode(this.mId, data, offset, no, out, outOffset))
+            return 0;
+        return getSampleSize();
+    }
+
+    @Override
+    public int conceal(short[] out, int outOffset) {
+        if (outOffset + getSampleSize() > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+        // Speex extrapolates a frame when it decodes a null packet
+        if (!decode(this.mId, null, 0, 0, out, outOffset))
+            return 0;
+        return getSampleSize();
+    }
+
     @Override
     public void exit() {
         destroyDecoder(this.mId);
     }
 
     // TODO: These functions need to be implemented in C
-    private native int createDecoder();
+    private native int createDecoder(boolean wideband);
 
-    private native boolean decode(int paramInt1, byte[] paramArrayOfByte, int paramInt2, short[] paramArrayOfShort);
+    private native boolean decode(int paramInt1, byte[] paramArrayOfByte, int paramInt2, int paramInt3,
+            short[] paramArrayOfShort, int paramInt4);
 
     private native void destroyDecoder(int paramInt);
 
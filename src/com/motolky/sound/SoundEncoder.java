@@ -31,90 +31,138 @@ import java.security.InvalidParameterException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.motolky.Common;
+
 /**
  * This class is used for encoding audio data. It is an interface to
  * the speex library. It uses the JNI interface, because we used the C
  * version of speex.
+ *
+ * Every object has its own speex encoder, identified by mId, with its own
+ * settings. Several encoders can run at the same time, for example to send
+ * different qualities to different peers. The lock of an object only keeps
+ * its settings from changing in the middle of an encoding.
  */
 public class SoundEncoder extends Codec
 {
     private static boolean mLibraryLoaded;
-    private static final Lock mLock = new ReentrantLock();
+    private static final Lock libraryLock = new ReentrantLock();
+
+    private final Lock mLock = new ReentrantLock();
+    private int mId = -1;
+    private int mComplexity = CODEC_COMPLEXITY;
+    private int mQuality = -1;
+    private boolean mDenoise = false;
+    private boolean mPreprocessor = false;
+    private boolean mVAD = false;
 
     static {
         mLibraryLoaded = false;
         checkLibrary();
     }
 
+    /**
+     * Constructor. The encoder works in the wideband mode of speex when
+     * Common.SAMPLE_RATE is Common.WIDEBAND_RATE.
+     */
     public SoundEncoder() throws Exception {
-        if (!createEncoder())
+        this.mId = createEncoder(Common.SAMPLE_RATE == Common.WIDEBAND_RATE);
+        if (this.mId < 0)
             throw new Exception("Could not creat a new encoder");
-        this.mFrameSize = getEncoderFrameSize();
+        this.mFrameSize = getEncoderFrameSize(this.mId);
+        setEncoderComplexity(this.mId, this.mComplexity);
     }
 
     private static void checkLibrary() {
-        mLock.lock();
+        libraryLock.lock();
         if (mLibraryLoaded)
         {
-            mLock.unlock();
+            libraryLock.unlock();
             return;
         }
 
         System.loadLibrary("speex");
         mLibraryLoaded = true;
-        mLock.unlock();
+        libraryLock.unlock();
     }
 
-    public static void setComplexity(int complexity)
+    public void setComplexity(int complexity)
     {
-        checkLibrary();
         mLock.lock();
-        setEncoderComplexity(complexity);
+        this.mComplexity = complexity;
+        setEncoderComplexity(this.mId, complexity);
         mLock.unlock();
     }
 
-    public static void setDenoise(boolean denoise)
+    public int getComplexity()
+    {
+        return this.mComplexity;
+    }
+
+    public void setDenoise(boolean denoise)
     {
-        checkLibrary();
         mLock.lock();
-        setEncoderDenoise(denoise);
+        this.mDenoise = denoise;
+        setEncoderDenoise(this.mId, denoise);
         mLock.unlock();
     }
 
-    public static void setPreproc(boolean enablePreprocessor)
+    public boolean getDenoise()
+    {
+        return this.mDenoise;
+    }
+
+    public void setPreproc(boolean enablePreprocessor)
     {
-        checkLibrary();
         mLock.lock();
-        setPreprocessorEnable(enablePreprocessor);
+        this.mPreprocessor = enablePreprocessor;
+        setPreprocessorEnable(this.mId, enablePreprocessor);
         mLock.unlock();
     }
 
-    public static void setQuality(int quality)
+    public boolean getPreproc()
+    {
+        return this.mPreprocessor;
+    }
+
+    /**
+     * @param quality - the speex quality, between 0 and 10
+     */
+    @Override
+    public void setQuality(int quality)
     {
-        checkLibrary();
         mLock.lock();
-        setEncoderQuality(quality);
+        this.mQuality = quality;
+        setEncoderQuality(this.mId, quality);
         mLock.unlock();
     }
 
-    public static void setVAD(boolean enableVAD)
+    /**
+     * @return the speex quality, -1 if it was never set
+     */
+    public int getQuality()
+    {
+        return this.mQuality;
+    }
+
+    public void setVAD(boolean enableVAD)
     {
-        checkLibrary();
         mLock.lock();
-        setEncoderVAD(enableVAD);
+        this.mVAD = enableVAD;
+        setEncoderVAD(this.mId, enableVAD);
         mLock.unlock();
     }
 
+    public boolean getVAD()
+    {
+        return this.mVAD;
+    }
+
     @Override
     public byte[] encodeAndGetEncoded(short[] data, int start, int length)
             throws InvalidParameterException {
-        verifyDataLen(length);
         byte[] bytes = new byte[2 * this.mFrameSize];
-        short[] shorts = new short[length];
-        System.arraycopy(data, start, shorts, 0, length);
-        mLock.lock();
-        int i = encode(shorts, bytes, bytes.length);
-        mLock.unlock();
+        int i = encodeInto(data, start, length, bytes, 0, bytes.length);
         if (i > 0)
         {
             byte[] tmp = new byte[i];
@@ -124,33 +172,48 @@ public class SoundEncoder extends Codec
         return null;
     }
 
+    @Override
+    public int encodeInto(short[] data, int offset, int length, byte[] out, int outOffset,
+            int maxBytes) throws InvalidParameterException
+    {
+        verifyDataLen(length);
+        if (outOffset + maxBytes > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+        mLock.lock();
+        int i = encode(this.mId, data, offset, out, outOffset, maxBytes);
+        mLock.unlock();
+        return i > 0 ? i : 0;
+    }
+
     @Override
     public void exit()
     {
-        checkLibrary();
         mLock.lock();
-        destroyEncoder();
+        if (this.mId >= 0)
+            destroyEncoder(this.mId);
+        this.mId = -1;
         mLock.unlock();
     }
 
     // TODO: These functions need to be implemented in C
-    private static native void setPreprocessorEnable(boolean paramBoolean);
+    private static native void setPreprocessorEnable(int paramInt, boolean paramBoolean);
 
-    private native boolean createEncoder();
+    private native int createEncoder(boolean wideband);
 
-    private native void destroyEncoder();
+    private native void destroyEncoder(int paramInt);
 
-    private native int encode(short[] paramArrayOfShort, byte[] paramArrayOfByte, int paramInt);
+    private native int encode(int paramInt1, short[] paramArrayOfShort, int paramInt2,
+            byte[] paramArrayOfByte, int paramInt3, int paramInt4);
 
-    private static native int getEncoderComplexity();
+    private static native int getEncoderComplexity(int paramInt);
 
-    private native int getEncoderFrameSize();
+    private native int getEncoderFrameSize(int paramInt);
 
-    private static native void setEncoderComplexity(int paramInt);
+    private static native void setEncoderComplexity(int paramInt1, int paramInt2);
 
-    private static native void setEncoderDenoise(boolean paramBoolean);
+    private static native void setEncoderDenoise(int paramInt, boolean paramBoolean);
 
-    private static native void setEncoderQuality(int paramInt);
+    private static native void setEncoderQuality(int paramInt1, int paramInt2);
 
-    private static native void setEncoderVAD(boolean paramBoolean);
-}
\ No newline at end of file
+    private static native void setEncoderVAD(int paramInt, boolean paramBoolean);
+}
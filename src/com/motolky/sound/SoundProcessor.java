@@ -30,109 +30,415 @@ package com.motolky.sound;
 import android.util.Log;
 
 import com.motolky.Common;
+import com.motolky.communication.FrameFormat;
+import com.motolky.communication.FramePacker;
 
 /**
  * This class it takes care of encoding audio data.
  * It implements a buffer where raw audio data is added. From that
- * data, it sends frame by frame to the speex encoder.
- * It is than polled for encoded data.
+ * data, it sends frame by frame to the encoder (speex or its fallback).
+ * It is than polled for encoded data. Every encoded frame is preceded
+ * by a header, as defined by FrameFormat.
+ *
+ * The sound is read from the microphone in whole frames of the codec, at
+ * Common.SAMPLE_RATE. When nothing is left over from a previous read, the
+ * frames are encoded straight from the buffer of the caller. The frames
+ * sampled in wideband carry FrameFormat.FLAG_WIDEBAND. Every frame also
+ * carries its audio level and Common.LOCAL_ORIGIN, which a relay uses to
+ * pick the loudest talkers. In multi-hop mode the frames may be forwarded
+ * Common.FORWARD_HOPS times by the other members.
+ *
+ * Every frame is encoded in Common.SIMULCAST_LAYERS layers, from the best
+ * quality (layer 0) to the lowest bitrate. A sender picks the layer that
+ * fits its link. The layers share the sequence numbers and the packet
+ * boundaries, such that a sender can switch layers between two packets
+ * and the receiver sees a continuous stream.
+ *
+ * When Common.ENABLE_VAD is set, the silent frames are not sent. Only a
+ * comfort noise frame, holding the level of the background noise, is sent
+ * at the start of the silence and then every Common.COMFORT_NOISE_INTERVAL
+ * frames or when the level changes. The sequence numbers only count the
+ * frames that are sent.
+ *
+ * The quality of a layer can be lowered in steps below the one it started
+ * with, when the links sending it cannot keep up (see BitrateController).
+ * This only changes the bitrate of the codecs with a variable bitrate.
+ *
+ * Up to Common.FRAMES_PER_PACKET consecutive frames are packed together
+ * with a FramePacker, which saves a header per frame. A packet that is not
+ * full is sent anyway once its first frame is Common.PACKET_DEADLINE
+ * miliseconds old. The encoded data is only handed out in whole packets,
+ * such that a sender can drop a buffer without breaking the stream.
  */
 public class SoundProcessor implements ISoundProcessor {
-    private final byte TERMINATION = 127;
-    private final int MAX_BUFFER_LEN;
+    private static final int MAX_FRAMES_PER_PACKET = 4;
+    private static final int MAX_LAYERS = 3;
+    // The weight of a new packet in the bitrate estimation of a layer
+    private static final float RATE_GAIN = 1.0f / 8;
+    // A comfort noise frame is sent when the noise level changes by this many dB
+    private static final int COMFORT_NOISE_CHANGE = 3;
+    // How much a quality step lowers the quality of the encoder
+    private static final int QUALITY_STEP = 2;
+    private static final int MIN_QUALITY = 1;
+    private int MAX_BUFFER_LEN;
 
     private short[] inBuffer;
     private int firstIn = 0;
     private int inBufferLen = 0;
-    private byte[] outBuffer;
-    private int outBufferLen = 0;
-    private int firstOut = 0;
     private int mSamplesLen = -1;
+    private int mSequence = 0;
+    private int mTimestamp = 0;
+    private final VoiceDetector mVoiceDetector = new VoiceDetector();
+    private boolean mSilent = false;
+    private int mSilentFrames = 0;
+    private int mNoiseLevel = 0;
+    private int mFrames = 0;
+    private int mSuppressedFrames = 0;
+    private final byte[] mPacket = new byte[Common.MAX_PACKET_LEN];
+    private final int mFlags =
+            Common.SAMPLE_RATE == Common.WIDEBAND_RATE ? FrameFormat.FLAG_WIDEBAND : 0;
+    private final int mOrigin = Common.LOCAL_ORIGIN;
+    private final int mTtl = Common.MULTI_HOP ? Common.FORWARD_HOPS : 0;
+    private int mLevel = FrameFormat.LEVEL_SILENT;
+    private Layer[] mLayers;
 
-    private Codec mCodec;
+    /**
+     * Constructor. The sound is encoded in Common.SIMULCAST_LAYERS layers.
+     * @param framesPerRead - how many frames of the codec a read from the
+     * microphone holds
+     */
+    public SoundProcessor(int framesPerRead) {
+        this(framesPerRead, Common.SIMULCAST_LAYERS);
+    }
 
     /**
      * Constructor
-     * @param maxBufferLen - the maximum size of the processing buffer
+     * @param framesPerRead - how many frames of the codec a read from the
+     * microphone holds
+     * @param layers - in how many layers the sound is encoded
      */
-    public SoundProcessor(int maxBufferLen) {
-        // Create the buffer
-        this.MAX_BUFFER_LEN = maxBufferLen;
-        this.inBuffer = new short[2 * MAX_BUFFER_LEN];
-        this.outBuffer = new byte[4 * MAX_BUFFER_LEN];
-
-        // Create the encoder
-        try
-        {
-          this.mCodec = new SoundEncoder();
-          this.mSamplesLen = this.mCodec.getSampleSize();
-        } catch (Exception e) {
-            Log.e(Common.TAG, "Error creating the encoder");
-            e.printStackTrace();
+    public SoundProcessor(int framesPerRead, int layers) {
+        // Create the encoders. All the layers need to use the same frame size.
+        layers = Math.max(1, Math.min(MAX_LAYERS, layers));
+        Layer[] created = new Layer[layers];
+        int count = 0;
+        for (int i = 0; i < layers; i++) {
+            Codec codec = CodecFactory.createEncoder(i, layers);
+            if (count > 0 && codec.getSampleSize() != this.mSamplesLen) {
+                Log.e(Common.TAG, "The encoder of layer " + i + " uses another frame size");
+                codec.exit();
+                continue;
+            }
+            this.mSamplesLen = codec.getSampleSize();
+            this.MAX_BUFFER_LEN = Math.max(1, framesPerRead) * this.mSamplesLen;
+            created[count++] = new Layer(codec, CodecFactory.getLayerQuality(i, layers));
         }
+        this.mLayers = new Layer[count];
+        System.arraycopy(created, 0, this.mLayers, 0, count);
+
+        // Create the input buffer. It only holds what is left of the reads
+        // that are not made of whole frames. Its length is a multiple of the
+        // frame size, such that a frame never wraps around its end and can
+        // be handed to the encoders in place.
+        this.inBuffer = new short[2 * this.MAX_BUFFER_LEN];
+    }
+
+    @Override
+    public int getFrameSize() {
+        return this.mSamplesLen;
     }
 
     @Override
     public void addRawSound(short[] data, int shorts) {
-        // Insert the data in the buffer
-        for (int i = 0; i < shorts; i++)
-            inBuffer[(i + firstIn + inBufferLen)%(2*inBuffer.length)] = data[i];
+        // Encode the whole frames of the data in place, as long as no
+        // samples wait in the buffer
+        int start = 0;
+        if (inBufferLen == 0) {
+            while (mSamplesLen > 0 && shorts - start >= mSamplesLen) {
+                processSamples(data, start);
+                start += mSamplesLen;
+            }
+        }
+
+        // Insert the rest of the data in the buffer
+        shorts -= start;
+        int free = inBuffer.length - inBufferLen;
+        if (shorts > free)
+            shorts = free;
+        int end = (firstIn + inBufferLen) % inBuffer.length;
+        int first = Math.min(shorts, inBuffer.length - end);
+        System.arraycopy(data, start, inBuffer, end, first);
+        System.arraycopy(data, start + first, inBuffer, 0, shorts - first);
         inBufferLen += shorts;
 
         // Encoded all the available frames in the buffer
-        while (inBufferLen >= mSamplesLen) {
-            short[] in = new short[mSamplesLen];
-            for (int i = 0; i < mSamplesLen; i++)
-                in[i] = inBuffer[(firstIn + i)%(2*MAX_BUFFER_LEN)];
-            firstIn = (firstIn + mSamplesLen) % (2*MAX_BUFFER_LEN);
+        while (mSamplesLen > 0 && inBufferLen >= mSamplesLen) {
+            processSamples(inBuffer, firstIn);
+            firstIn = (firstIn + mSamplesLen) % inBuffer.length;
             inBufferLen -= mSamplesLen;
-            processSamples(in);
         }
+
+        // Send the packets being built if they waited for too long
+        int deadline = Common.PACKET_DEADLINE * Common.SAMPLE_RATE / 1000;
+        FramePacker packer = this.mLayers[0].mPacker;
+        if (packer.getCount() > 0 && this.mTimestamp - packer.getFirstTimestamp() >= deadline)
+            flushPackets();
     }
 
     /**
-     * Returns all the encoded frames available
+     * Returns the encoded packets of the best layer available, as long as
+     * they fit in maxbytes.
      */
     @Override
     public int getProcessedSound(byte[] data, int maxbytes) {
-        int len = this.outBufferLen;
-        if (len >= 0) {
-            int j = 0;
-            while (true) {
-                if ((j >= maxbytes) || (j >= len))
-                {
-                  this.outBufferLen -= j;
-                  return j;
-                }
-                data[j] = this.outBuffer[this.firstOut];
-                j++;
-                this.firstOut = (1 + this.firstOut) % this.outBuffer.length;
-            }
-        }
-        return 0;
+        return getProcessedSound(0, data, maxbytes);
+    }
+
+    /**
+     * Returns the encoded packets of a layer available, as long as they fit
+     * in maxbytes. A packet is never split.
+     */
+    @Override
+    public int getProcessedSound(int layer, byte[] data, int maxbytes) {
+        return this.mLayers[layer].getPackets(data, maxbytes);
+    }
+
+    @Override
+    public int getLayers() {
+        return this.mLayers.length;
+    }
+
+    @Override
+    public int getLayerRate(int layer) {
+        return (int)this.mLayers[layer].mRate;
+    }
+
+    @Override
+    public void setQualityStep(int layer, int step) {
+        this.mLayers[layer].setQualityStep(step);
+    }
+
+    @Override
+    public float getSuppressedFraction() {
+        if (this.mFrames == 0)
+            return 0;
+        return (float)this.mSuppressedFrames / this.mFrames;
     }
 
     @Override
     public void exit() {
-           this.mCodec.exit();
+        for (Layer layer : this.mLayers)
+           layer.mCodec.exit();
     }
 
     /**
-     * Encodes a frame of sound and copies it in the output buffer
-     * @param samples - the frame to encode
+     * Encodes a frame of sound in every layer, precedes it by its header
+     * and adds it to the packets being built
+     * @param samples - the buffer holding the frame to encode
+     * @param offset - where the frame starts in the buffer
      */
-    private void processSamples(short[] samples)
+    private void processSamples(short[] samples, int offset)
     {
-        byte[] encoded = this.mCodec.encodeAndGetEncoded(samples, 0, samples.length);
-        if (encoded == null)
-            return;
+        int timestamp = this.mTimestamp;
+        this.mTimestamp += this.mSamplesLen;
+        this.mFrames++;
 
-        for (int i = 0; i < encoded.length; i++)
-            this.outBuffer[(this.firstOut + this.outBufferLen + i) %
-                    this.outBuffer.length] = encoded[i];
-        this.outBufferLen += encoded.length;
+        // Decide whether the frame is sent, replaced by comfort noise or dropped
+        boolean comfortNoise = false;
+        if (Common.ENABLE_VAD && !this.mVoiceDetector.isSpeech(samples, offset, this.mSamplesLen)) {
+            int level = ComfortNoise.rmsToLevel(this.mVoiceDetector.getLevel());
+            if (!this.mSilent || ++this.mSilentFrames >= Common.COMFORT_NOISE_INTERVAL ||
+                    Math.abs(level - this.mNoiseLevel) >= COMFORT_NOISE_CHANGE) {
+                this.mSilent = true;
+                this.mSilentFrames = 0;
+                this.mNoiseLevel = level;
+                comfortNoise = true;
+            } else {
+                this.mSuppressedFrames++;
+                return;
+            }
+        } else {
+            this.mSilent = false;
+        }
+        this.mLevel = comfortNoise ? FrameFormat.LEVEL_SILENT : getLevel(samples, offset);
 
-        for (int j = 0; j < 2; j++)
-            this.outBuffer[(this.firstOut + this.outBufferLen + j) % this.outBuffer.length] = TERMINATION;
+        int sequence = this.mSequence;
+        this.mSequence = (this.mSequence + 1) & 0xFFFF;
+
+        // If a frame cannot join the packet of its layer, the packets of
+        // all the layers are sent, to keep their boundaries aligned
+        boolean flush = false;
+        for (Layer layer : this.mLayers) {
+            boolean encoded;
+            if (comfortNoise)
+                encoded = layer.encodeComfortNoise(this.mNoiseLevel, sequence, timestamp);
+            else
+                encoded = layer.encode(samples, offset, sequence, timestamp);
+            if (encoded && !layer.mPacker.canAdd(layer.mFrame, 0))
+                flush = true;
+        }
+        if (flush)
+            flushPackets();
+
+        int count = 0;
+        for (Layer layer : this.mLayers) {
+            if (layer.mFrameLen > 0)
+                layer.mPacker.add(layer.mFrame, 0);
+            count = Math.max(count, layer.mPacker.getCount());
+        }
+
+        int framesPerPacket = Math.max(1, Math.min(MAX_FRAMES_PER_PACKET, Common.FRAMES_PER_PACKET));
+        if (count >= framesPerPacket)
+            flushPackets();
+    }
+
+    /**
+     * @return the audio level of a frame, in -dBov
+     */
+    private int getLevel(short[] samples, int offset)
+    {
+        long energy = 0;
+        for (int i = offset; i < offset + this.mSamplesLen; i++)
+            energy += samples[i] * samples[i];
+        return ComfortNoise.rmsToLevel((float)Math.sqrt((double)energy / this.mSamplesLen));
+    }
+
+    private void flushPackets()
+    {
+        for (Layer layer : this.mLayers)
+            layer.flushPacket();
+    }
+
+    /**
+     * The encoder of a layer, with the packet it builds and its output buffer
+     */
+    private class Layer {
+        private final Codec mCodec;
+        private final byte[] mFrame;
+        private int mFrameLen = 0;
+        private final FramePacker mPacker = new FramePacker(Common.MAX_PACKET_LEN);
+        private final byte[] outBuffer;
+        private int outBufferLen = 0;
+        private int firstOut = 0;
+        private final int[] mPacketLens;
+        private int mFirstPacket = 0;
+        private int mPacketCount = 0;
+        // The bitrate of the layer, in bytes per second
+        private float mRate = 0;
+        private final int mBaseQuality;
+        private int mQualityStep = 0;
+
+        Layer(Codec codec, int baseQuality) {
+            this.mCodec = codec;
+            this.mBaseQuality = baseQuality;
+            this.mFrame = new byte[FrameFormat.HEADER_LEN + 2 * Math.max(codec.getSampleSize(), 1)];
+            this.outBuffer = new byte[Math.max(4 * MAX_BUFFER_LEN, 2 * Common.MAX_PACKET_LEN)];
+            this.mPacketLens = new int[this.outBuffer.length / FrameFormat.HEADER_LEN + 1];
+        }
+
+        /**
+         * Encodes a frame and precedes it by its header
+         * @return true if the frame was encoded
+         */
+        boolean encode(short[] samples, int offset, int sequence, int timestamp)
+        {
+            this.mFrameLen = 0;
+            int len = this.mCodec.encodeInto(samples, offset, mSamplesLen, this.mFrame,
+                    FrameFormat.HEADER_LEN, this.mFrame.length - FrameFormat.HEADER_LEN);
+            if (len <= 0)
+                return false;
+
+            FrameFormat.writeHeader(this.mFrame, 0, this.mCodec.getCodecId(), mFlags,
+                    len, sequence, timestamp);
+            FrameFormat.setLevel(this.mFrame, 0, mLevel);
+            FrameFormat.setOrigin(this.mFrame, 0, mOrigin);
+            FrameFormat.setTtl(this.mFrame, 0, mTtl);
+            this.mFrameLen = FrameFormat.HEADER_LEN + len;
+            return true;
+        }
+
+        void setQualityStep(int step)
+        {
+            if (step == this.mQualityStep)
+                return;
+            this.mQualityStep = step;
+            this.mCodec.setQuality(Math.max(MIN_QUALITY, this.mBaseQuality - step * QUALITY_STEP));
+        }
+
+        /**
+         * Builds a comfort noise frame
+         * @param level - the level of the noise, in -dBov
+         * @return true if the frame was built
+         */
+        boolean encodeComfortNoise(int level, int sequence, int timestamp)
+        {
+            int len = FrameFormat.writeHeader(this.mFrame, 0, this.mCodec.getCodecId(),
+                    mFlags | FrameFormat.FLAG_COMFORT_NOISE, ComfortNoise.PAYLOAD_LEN, sequence,
+                    timestamp);
+            FrameFormat.setOrigin(this.mFrame, 0, mOrigin);
+            FrameFormat.setTtl(this.mFrame, 0, mTtl);
+            this.mFrame[len] = (byte)level;
+            this.mFrameLen = len + ComfortNoise.PAYLOAD_LEN;
+            return true;
+        }
+
+        /**
+         * Moves the packet being built to the output buffer. The packet is
+         * dropped if the output buffer is full.
+         */
+        void flushPacket()
+        {
+            int frames = this.mPacker.getCount();
+            int len = this.mPacker.pack(mPacket, 0);
+            if (len <= 0)
+                return;
+            float rate = (float)len * Common.SAMPLE_RATE / (frames * mSamplesLen);
+            this.mRate += (rate - this.mRate) * RATE_GAIN;
+            if (this.outBufferLen + len > this.outBuffer.length ||
+                    this.mPacketCount == this.mPacketLens.length)
+                return;
+
+            copyToOutput(mPacket, len);
+            this.mPacketLens[(this.mFirstPacket + this.mPacketCount) % this.mPacketLens.length] = len;
+            this.mPacketCount++;
+        }
+
+        /**
+         * Takes whole packets out of the output buffer
+         * @return the number of bytes copied in data
+         */
+        int getPackets(byte[] data, int maxbytes)
+        {
+            int j = 0;
+            while (this.mPacketCount > 0) {
+                int len = this.mPacketLens[this.mFirstPacket];
+                if (j + len > maxbytes)
+                    break;
+
+                int first = Math.min(len, this.outBuffer.length - this.firstOut);
+                System.arraycopy(this.outBuffer, this.firstOut, data, j, first);
+                System.arraycopy(this.outBuffer, 0, data, j + first, len - first);
+                this.firstOut = (this.firstOut + len) % this.outBuffer.length;
+                this.outBufferLen -= len;
+                this.mFirstPacket = (this.mFirstPacket + 1) % this.mPacketLens.length;
+                this.mPacketCount--;
+                j += len;
+            }
+            return j;
+        }
+
+        /**
+         * Appends data at the end of the output buffer
+         * @param data - the data to append
+         * @param len - how many bytes of data to append
+         */
+        private void copyToOutput(byte[] data, int len)
+        {
+            int end = (this.firstOut + this.outBufferLen) % this.outBuffer.length;
+            int first = Math.min(len, this.outBuffer.length - end);
+            System.arraycopy(data, 0, this.outBuffer, end, first);
+            System.arraycopy(data, first, this.outBuffer, 0, len - first);
+            this.outBufferLen += len;
+        }
     }
 }
@@ -0,0 +1,199 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class changes the tempo of the sound without changing its pitch,
+ * with WSOLA (waveform similarity overlap-add). It plays faster to catch up
+ * after a burst of frames and slower to stretch the last frames when the
+ * jitter buffer is about to run empty.
+ *
+ * The output is built in hops of half a frame. Each hop cross-fades from
+ * the natural continuation of the previous hop to a segment of the input
+ * taken near the position the tempo asks for. The segment is chosen within
+ * SEARCH_MILLIS of that position, where it correlates best with the natural
+ * continuation, such that the periods of the voice line up.
+ *
+ * The frames are pulled from a source, like the Resampler does. At the
+ * normal tempo and before the first change, the frames go straight through.
+ * Nothing is allocated while running. The time spent changing the tempo is
+ * measured per frame.
+ */
+public class TimeScaler implements Resampler.Source {
+    public static final float MAX_SPEED = 1.25f;
+    public static final float MIN_SPEED = 0.9f;
+    // How far from the nominal position a segment is searched for
+    private static final int SEARCH_MILLIS = 5;
+
+    private final Resampler.Source mSource;
+    private final int mFrame;
+    private final int mHop;
+    private final int mSearch;
+    private final short[] mIn;
+    private int mCount = 0;
+    // Where the natural continuation of the output starts in mIn
+    private int mNatural = 0;
+    // Where the tempo says the next segment should start in mIn
+    private double mNominal = 0;
+    private float mSpeed = 1;
+
+    private int mScaledFrames = 0;
+    private long mScaledNanos = 0;
+    private long mMaxNanos = 0;
+
+    /**
+     * Constructor
+     * @param source - where to take the frames from
+     * @param frame - the number of samples of a frame
+     * @param sampleRate - the sample rate of the frames
+     */
+    public TimeScaler(Resampler.Source source, int frame, int sampleRate) {
+        mSource = source;
+        mFrame = frame;
+        mHop = frame / 2;
+        mSearch = sampleRate * SEARCH_MILLIS / 1000;
+        mIn = new short[4 * frame + 2 * mSearch];
+    }
+
+    /**
+     * @param speed - between MIN_SPEED and MAX_SPEED; 1 is the normal tempo
+     */
+    public void setSpeed(float speed) {
+        mSpeed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    @Override
+    public int read(short[] out, int offset) {
+        if (mSpeed == 1 && mCount == 0)
+            return mSource.read(out, offset);
+
+        long start = System.nanoTime();
+        for (int h = 0; h + mHop <= mFrame; h += mHop) {
+            if (!produceHop(out, offset + h)) {
+                // The stream stopped. It starts again from scratch.
+                mCount = 0;
+                mNatural = 0;
+                mNominal = 0;
+                return 0;
+            }
+        }
+
+        if (mSpeed != 1) {
+            long nanos = System.nanoTime() - start;
+            mScaledFrames++;
+            mScaledNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+        return mFrame;
+    }
+
+    /**
+     * @return the number of frames played at another tempo than the normal one
+     */
+    public int getScaledFrames() {
+        return mScaledFrames;
+    }
+
+    /**
+     * @return the average time spent on a frame played at another tempo, in microseconds
+     */
+    public long getAverageMicros() {
+        return mScaledFrames == 0 ? 0 : mScaledNanos / mScaledFrames / 1000;
+    }
+
+    /**
+     * @return the longest time spent on a frame, in microseconds
+     */
+    public long getMaxMicros() {
+        return mMaxNanos / 1000;
+    }
+
+    /**
+     * Writes a hop of output
+     * @return false if the source ran out of frames
+     */
+    private boolean produceHop(short[] out, int offset) {
+        int nominal = (int)mNominal;
+        int need = Math.max(mNatural, nominal + (mSpeed == 1 ? 0 : mSearch)) + mHop;
+        while (need > mCount) {
+            int base = compact();
+            need -= base;
+            nominal -= base;
+            int read = mSource.read(mIn, mCount);
+            if (read <= 0)
+                return false;
+            mCount += read;
+        }
+
+        if (mSpeed == 1) {
+            System.arraycopy(mIn, mNatural, out, offset, mHop);
+            mNatural += mHop;
+            mNominal = mNatural;
+            return true;
+        }
+
+        // Find the segment that best continues the output
+        int best = nominal;
+        long bestCorrelation = Long.MIN_VALUE;
+        for (int start = Math.max(0, nominal - mSearch); start <= nominal + mSearch; start++) {
+            long correlation = 0;
+            for (int i = 0; i < mHop; i += 2)
+                correlation += mIn[start + i] * mIn[mNatural + i];
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                best = start;
+            }
+        }
+
+        // Cross-fade from the natural continuation to the segment
+        for (int i = 0; i < mHop; i++)
+            out[offset + i] = (short)((mIn[mNatural + i] * (mHop - i) + mIn[best + i] * i) / mHop);
+        mNatural = best + mHop;
+        mNominal += mHop * mSpeed;
+        return true;
+    }
+
+    /**
+     * Throws away the input samples that are not needed anymore
+     * @return by how much the positions moved
+     */
+    private int compact() {
+        int base = Math.min(mNatural, (int)mNominal - mSearch);
+        if (base <= 0)
+            return 0;
+        System.arraycopy(mIn, base, mIn, 0, mCount - base);
+        mCount -= base;
+        mNatural -= base;
+        mNominal -= base;
+        return base;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * This class decides whether a frame of sound holds speech. It compares the
+ * energy of the frame with an estimation of the background noise: voiced
+ * sounds are well above it, while unvoiced sounds (like "s" or "f") are
+ * weaker but cross zero often. After the speech ends, the frames are still
+ * reported as speech for Common.VAD_HANGOVER frames, such that the ends of
+ * the words are not cut.
+ *
+ * The noise estimation follows the quietest frames at once and rises slowly,
+ * such that it adapts when the background gets louder.
+ */
+public class VoiceDetector {
+    // A voiced frame has at least this many times the energy of the noise (6 dB)
+    private static final float VOICED_RATIO = 4.0f;
+    // An unvoiced frame has at least this many times the energy of the noise (3 dB)
+    private static final float UNVOICED_RATIO = 2.0f;
+    // ...and at least this rate of zero crossings per sample at 8 kHz
+    private static final float UNVOICED_ZCR = 0.25f;
+    // How fast the noise estimation rises, per frame (about 4 dB per second)
+    private static final float NOISE_RISE = 1.01f;
+    // Frames quieter than this (a RMS of 30) are never speech
+    private static final float MIN_ENERGY = 30.0f * 30.0f;
+
+    private float mNoise = -1;
+    private float mEnergy = 0;
+    private int mHangover = 0;
+
+    /**
+     * Analyzes a frame
+     * @param samples - the buffer holding the frame
+     * @param offset - where the frame starts in the buffer
+     * @param length - the number of samples of the frame
+     * @return true if the frame is speech or in the hangover after speech
+     */
+    public boolean isSpeech(short[] samples, int offset, int length) {
+        long sum = 0;
+        int crossings = 0;
+        int previous = samples[offset];
+        for (int i = offset; i < offset + length; i++) {
+            int sample = samples[i];
+            sum += sample * sample;
+            if ((sample ^ previous) < 0)
+                crossings++;
+            previous = sample;
+        }
+        float energy = (float)sum / length;
+        float zcr = (float)crossings / length * Common.SAMPLE_RATE / Common.NARROWBAND_RATE;
+        mEnergy = energy;
+
+        if (mNoise < 0 || energy < mNoise)
+            mNoise = Math.max(energy, 1);
+        else
+            mNoise *= NOISE_RISE;
+
+        boolean speech = energy > MIN_ENERGY &&
+                (energy > VOICED_RATIO * mNoise ||
+                 (energy > UNVOICED_RATIO * mNoise && zcr > UNVOICED_ZCR));
+        if (speech) {
+            mHangover = Common.VAD_HANGOVER;
+            return true;
+        }
+        if (mHangover > 0) {
+            mHangover--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the RMS of the last frame analyzed
+     */
+    public float getLevel() {
+        return (float)Math.sqrt(mEnergy);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.motolky.communication.Device;
+import com.motolky.communication.IConnectable;
+import com.motolky.communication.IConnection;
+
+public class ReconnectSchedulerTest {
+    private static final float JITTER = 0.25f;
+    private static final int DRAWS = 200;
+
+    private int mMinTimeout;
+    private int mMaxTimeout;
+    private int mStableTime;
+
+    @Before
+    public void setUp() {
+        mMinTimeout = Common.RECONNECT_MIN_TIMEOUT;
+        mMaxTimeout = Common.RECONNECT_MAX_TIMEOUT;
+        mStableTime = Common.RECONNECT_STABLE_TIME;
+        Common.RECONNECT_MIN_TIMEOUT = 3000;
+        Common.RECONNECT_MAX_TIMEOUT = 10000;
+    }
+
+    @After
+    public void tearDown() {
+        Common.RECONNECT_MIN_TIMEOUT = mMinTimeout;
+        Common.RECONNECT_MAX_TIMEOUT = mMaxTimeout;
+        Common.RECONNECT_STABLE_TIME = mStableTime;
+    }
+
+    /**
+     * Opens links that do nothing, at once
+     */
+    private static class LinkOpener implements IConnectable {
+        @Override
+        public IConnection getConnection(Peer peer, Device device) {
+            return new IConnection() {
+                @Override
+                public InputStream getInputStream() {
+                    return null;
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return null;
+                }
+
+                @Override
+                public boolean isDatagram() {
+                    return false;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /**
+     * @return how long the peer waited for a link, in miliseconds
+     */
+    private static long timeConnection(ReconnectScheduler scheduler, Peer peer) {
+        long start = System.currentTimeMillis();
+        assertTrue(scheduler.getConnection(peer, null) != null);
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Checks that the delays after a number of failures stay within JITTER
+     * of the expected one
+     */
+    private static void assertDelay(ReconnectScheduler scheduler, int failures, long expected) {
+        for (int i = 0; i < DRAWS; i++) {
+            long delay = scheduler.getDelay(failures);
+            assertTrue("Delay " + delay + " after " + failures + " failures, expected " + expected,
+                    delay >= expected * (1 - JITTER) && delay <= expected * (1 + JITTER));
+        }
+    }
+
+    @Test
+    public void delaySequence() {
+        ReconnectScheduler scheduler = new ReconnectScheduler(null);
+        // The minimum timeout for the first failures, then doubling up to the maximum
+        for (int failures = 1; failures <= Common.TIMES_TO_USE_MIN_RECONNECT_TIMEOUT; failures++)
+            assertDelay(scheduler, failures, 3000);
+        int failures = Common.TIMES_TO_USE_MIN_RECONNECT_TIMEOUT;
+        assertDelay(scheduler, failures + 1, 6000);
+        assertDelay(scheduler, failures + 2, 10000);
+        assertDelay(scheduler, failures + 3, 10000);
+        // Many failures do not overflow the delay
+        assertDelay(scheduler, 1000, 10000);
+    }
+
+    @Test
+    public void maximumBelowMinimum() {
+        Common.RECONNECT_MAX_TIMEOUT = 1000;
+        ReconnectScheduler scheduler = new ReconnectScheduler(null);
+        assertDelay(scheduler, 1, 3000);
+        assertDelay(scheduler, 10, 3000);
+    }
+
+    @Test
+    public void delaysAreSpread() {
+        ReconnectScheduler scheduler = new ReconnectScheduler(null);
+        long min = Long.MAX_VALUE, max = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            long delay = scheduler.getDelay(1);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // Peers that failed together do not retry together
+        assertTrue(max - min > 3000 * JITTER);
+    }
+
+    @Test
+    public void flappingLinkBacksOff() throws InterruptedException {
+        Common.RECONNECT_MIN_TIMEOUT = 100;
+        Common.RECONNECT_MAX_TIMEOUT = 800;
+        Common.RECONNECT_STABLE_TIME = 1000;
+        ReconnectScheduler scheduler = new ReconnectScheduler(new LinkOpener());
+        Peer peer = new Peer(null, null, null, null, null, false);
+        // The first link is opened at once
+        assertTrue(timeConnection(scheduler, peer) < 1000);
+
+        // Every link is lost as soon as it opens: each loss is a failure
+        long waited = 0;
+        for (int i = 0; i < Common.TIMES_TO_USE_MIN_RECONNECT_TIMEOUT + 3; i++)
+            waited = timeConnection(scheduler, peer);
+        assertTrue("Waited " + waited + " ms after the link kept flapping",
+                waited >= 800 * (1 - JITTER));
+
+        // A link that stayed up starts over from a fast retry
+        Thread.sleep(Common.RECONNECT_STABLE_TIME);
+        waited = timeConnection(scheduler, peer);
+        assertTrue("Waited " + waited + " ms after a stable link", waited < 600);
+    }
+}
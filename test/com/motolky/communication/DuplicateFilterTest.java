@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+    @Test
+    public void copiesAreRejected() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertTrue(filter.accept(1, 100, 1));
+        assertFalse(filter.accept(1, 100, 1));
+        assertTrue(filter.accept(1, 101, 1));
+        assertFalse(filter.accept(1, 100, 1));
+        assertFalse(filter.accept(1, 101, 1));
+    }
+
+    @Test
+    public void originsAreSeparate() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertTrue(filter.accept(1, 100, 1));
+        assertTrue(filter.accept(2, 100, 1));
+        assertFalse(filter.accept(2, 100, 1));
+    }
+
+    @Test
+    public void sequenceWrapsAround() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertTrue(filter.accept(1, 65534, 1));
+        assertTrue(filter.accept(1, 65535, 1));
+        assertTrue(filter.accept(1, 0, 1));
+        assertTrue(filter.accept(1, 1, 1));
+        assertFalse(filter.accept(1, 65535, 1));
+        assertFalse(filter.accept(1, 0, 1));
+        // Late but not seen yet
+        assertTrue(filter.accept(1, 65530, 1));
+    }
+
+    @Test
+    public void packetsAcrossTheWrapAreMarked() {
+        DuplicateFilter filter = new DuplicateFilter();
+        // Frames 65535 and 0, judged by the last one
+        assertTrue(filter.accept(1, 65535, 2));
+        assertFalse(filter.accept(1, 65535, 2));
+        assertFalse(filter.accept(1, 0, 1));
+        assertTrue(filter.accept(1, 1, 2));
+        assertFalse(filter.accept(1, 2, 1));
+    }
+
+    @Test
+    public void windowEdges() {
+        DuplicateFilter filter = new DuplicateFilter();
+        int highest = 1000;
+        assertTrue(filter.accept(1, highest, 1));
+        // The oldest frame the window holds
+        assertTrue(filter.accept(1, highest - DuplicateFilter.WINDOW + 1, 1));
+        assertFalse(filter.accept(1, highest - DuplicateFilter.WINDOW + 1, 1));
+        // Older than the window: it cannot be told from a copy
+        assertFalse(filter.accept(1, highest - DuplicateFilter.WINDOW, 1));
+    }
+
+    @Test
+    public void windowShiftsOut() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertTrue(filter.accept(1, 10, 1));
+        // One frame short of shifting 10 out of the window
+        assertTrue(filter.accept(1, 10 + DuplicateFilter.WINDOW - 1, 1));
+        assertFalse(filter.accept(1, 10, 1));
+        assertTrue(filter.accept(1, 11, 1));
+        // A jump of a whole window clears it
+        assertTrue(filter.accept(1, 11 + 2 * DuplicateFilter.WINDOW, 1));
+        assertFalse(filter.accept(1, 11 + DuplicateFilter.WINDOW, 1));
+        assertTrue(filter.accept(1, 12 + DuplicateFilter.WINDOW, 1));
+    }
+
+    @Test
+    public void originRestarts() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertTrue(filter.accept(1, 5000, 1));
+        // Too far back to be late: the origin started again
+        assertTrue(filter.accept(1, 10, 1));
+        assertTrue(filter.accept(1, 11, 1));
+        assertFalse(filter.accept(1, 10, 1));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.motolky.Common;
+
+/**
+ * Sends groups of packets through the FEC encoder, loses some of them and
+ * checks what the decoder rebuilds from the parity.
+ */
+public class FecDecoderTest {
+    private static final int ORIGIN = 3;
+    private static final int GROUP = 4;
+
+    private boolean mEnableFec;
+    private int mParityGroup;
+    private FecEncoder mEncoder;
+    private FecDecoder mDecoder;
+    private SendQueue mQueue;
+    private int mSequence = 0;
+
+    @Before
+    public void setUp() {
+        mEnableFec = Common.ENABLE_FEC;
+        mParityGroup = Common.FEC_PARITY_GROUP;
+        Common.ENABLE_FEC = true;
+        Common.FEC_PARITY_GROUP = GROUP;
+        mEncoder = new FecEncoder();
+        // A loss of about 30%, well above the threshold
+        mEncoder.setRemoteLoss(80, 0);
+        mDecoder = new FecDecoder();
+        mQueue = new SendQueue(2 * GROUP, Common.MAX_PACKET_LEN, false);
+    }
+
+    @After
+    public void tearDown() {
+        Common.ENABLE_FEC = mEnableFec;
+        Common.FEC_PARITY_GROUP = mParityGroup;
+    }
+
+    /**
+     * @return a packet of one frame, of a length that depends on its
+     * sequence number, filled with a pattern
+     */
+    private byte[] makePacket() {
+        int payload = 20 + 7 * (mSequence % 5);
+        byte[] packet = new byte[FrameFormat.HEADER_LEN + payload];
+        FrameFormat.writeHeader(packet, 0, 1, 0, payload, mSequence, mSequence * 160);
+        FrameFormat.setOrigin(packet, 0, ORIGIN);
+        for (int i = FrameFormat.HEADER_LEN; i < packet.length; i++)
+            packet[i] = (byte)(mSequence * 31 + i);
+        mSequence++;
+        return packet;
+    }
+
+    /**
+     * Sends a group of packets and its parity
+     * @return the packets, then the parity, as they were queued
+     */
+    private byte[][] sendGroup() throws InterruptedException {
+        byte[][] sent = new byte[GROUP + 1][];
+        for (int i = 0; i < GROUP; i++) {
+            byte[] packet = makePacket();
+            mEncoder.send(packet, packet.length, null, 0, mQueue);
+        }
+        assertEquals(GROUP + 1, mQueue.getDepth());
+        byte[] buffer = new byte[mQueue.getMaxLength()];
+        for (int i = 0; i <= GROUP; i++)
+            sent[i] = Arrays.copyOf(buffer, mQueue.take(buffer));
+        assertTrue((FrameFormat.getFlags(sent[GROUP], 0) & FrameFormat.FLAG_PARITY) != 0);
+        return sent;
+    }
+
+    @Test
+    public void oneLostPacketIsRebuilt() throws InterruptedException {
+        for (int lost = 0; lost < GROUP; lost++) {
+            byte[][] sent = sendGroup();
+            for (int i = 0; i < GROUP; i++)
+                if (i != lost)
+                    assertTrue(mDecoder.accept(sent[i], 0, sent[i].length));
+
+            byte[] parity = sent[GROUP];
+            int length = mDecoder.rebuild(parity, 0, parity.length);
+            assertEquals(sent[lost].length, length);
+            assertArrayEquals(sent[lost], Arrays.copyOf(mDecoder.getPacket(), length));
+        }
+        assertEquals(GROUP, mDecoder.getRebuilt());
+    }
+
+    @Test
+    public void nothingToRebuildWithoutLoss() throws InterruptedException {
+        byte[][] sent = sendGroup();
+        for (int i = 0; i < GROUP; i++)
+            assertTrue(mDecoder.accept(sent[i], 0, sent[i].length));
+        assertEquals(0, mDecoder.rebuild(sent[GROUP], 0, sent[GROUP].length));
+        assertEquals(0, mDecoder.getRebuilt());
+    }
+
+    @Test
+    public void twoLostPacketsAreNotRebuilt() throws InterruptedException {
+        byte[][] sent = sendGroup();
+        for (int i = 2; i < GROUP; i++)
+            assertTrue(mDecoder.accept(sent[i], 0, sent[i].length));
+        assertEquals(0, mDecoder.rebuild(sent[GROUP], 0, sent[GROUP].length));
+        assertEquals(0, mDecoder.getRebuilt());
+    }
+
+    @Test
+    public void rebuiltPacketIsNotRebuiltTwice() throws InterruptedException {
+        byte[][] sent = sendGroup();
+        for (int i = 1; i < GROUP; i++)
+            assertTrue(mDecoder.accept(sent[i], 0, sent[i].length));
+        assertEquals(sent[0].length, mDecoder.rebuild(sent[GROUP], 0, sent[GROUP].length));
+        // The packet arrives late after all, or the parity comes again
+        assertFalse(mDecoder.accept(sent[0], 0, sent[0].length));
+        assertEquals(0, mDecoder.rebuild(sent[GROUP], 0, sent[GROUP].length));
+        assertEquals(1, mDecoder.getRebuilt());
+    }
+}
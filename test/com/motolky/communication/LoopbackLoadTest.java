@@ -0,0 +1,241 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.motolky.Peer;
+
+/**
+ * A load test of the links. It starts NODES nodes on the loopback
+ * interface, links every node with all the others over TCP or UDP and makes
+ * every node send a frame on all its links every 20 ms, as a talk does.
+ * Every frame must arrive, none may be dropped by the send queues and the
+ * latency from the sending thread to the receive handler must stay low.
+ * The statistics of the run are printed as well.
+ */
+public class LoopbackLoadTest {
+    private static final int NODES = 7;
+    private static final int TCP_FIRST_PORT = 47100;
+    private static final int UDP_FIRST_PORT = 47200;
+    private static final int PAYLOAD_LEN = 38;   // bytes, a speex frame at quality 8
+    private static final int PERIOD = 20;        // miliseconds
+    private static final int DURATION = 2000;    // miliseconds
+    // How long the frames still on the way may take to arrive
+    private static final int DRAIN_TIMEOUT = 2000; // miliseconds
+    private static final int MAX_P99_LATENCY = 50000; // us
+    // Latencies are counted in buckets of 10 us, up to 1 s
+    private static final int BUCKET_MICROS = 10;
+
+    private final long[] mLatencies = new long[100000];
+    private final AtomicLong mReceived = new AtomicLong();
+    private final List<List<CommunicationThread>> mLinks =
+            new ArrayList<List<CommunicationThread>>();
+
+    @After
+    public void tearDown() {
+        for (List<CommunicationThread> node : mLinks)
+            for (CommunicationThread link : node)
+                link.cancel();
+    }
+
+    @Test
+    public void tcpGroup() throws Exception {
+        connect(new TcpTransport(), TCP_FIRST_PORT);
+        run("TCP");
+    }
+
+    @Test
+    public void udpGroup() throws Exception {
+        connect(new UdpTransport(), UDP_FIRST_PORT);
+        run("UDP");
+    }
+
+    /**
+     * Links every node with all the others
+     */
+    private void connect(ITransport transport, int firstPort) throws Exception {
+        IReceiveHandler receiveHandler = new IReceiveHandler() {
+            @Override
+            public void receiveFrame(byte[] buffer, int offset, int length) {
+                // The timestamp of the frames is the time they were sent, in us
+                int sent = FrameFormat.getTimestamp(buffer, offset);
+                int micros = (now() - sent) & 0x7FFFFFFF;
+                int bucket = Math.min(mLatencies.length - 1, micros / BUCKET_MICROS);
+                synchronized (mLatencies) {
+                    mLatencies[bucket]++;
+                }
+                mReceived.incrementAndGet();
+            }
+        };
+
+        List<IAcceptor> acceptors = new ArrayList<IAcceptor>();
+        List<Device> devices = new ArrayList<Device>();
+        try {
+            for (int i = 0; i < NODES; i++) {
+                Device device = new Device("node" + i,
+                        new InetSocketAddress("127.0.0.1", firstPort + i));
+                devices.add(device);
+                acceptors.add(transport.listen(device));
+                mLinks.add(new ArrayList<CommunicationThread>());
+            }
+
+            // Every node connects to the nodes before it
+            for (int i = 0; i < NODES; i++) {
+                for (int j = i + 1; j < NODES; j++) {
+                    final IAcceptor acceptor = acceptors.get(i);
+                    final IConnection[] accepted = new IConnection[1];
+                    Thread acceptThread = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                accepted[0] = acceptor.accept();
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    };
+                    acceptThread.start();
+                    IConnection connection = transport.connect(devices.get(i));
+                    acceptThread.join();
+                    assertTrue("Node " + i + " did not accept node " + j, accepted[0] != null);
+
+                    CommunicationThread client = new CommunicationThread(receiveHandler,
+                            connection,
+                            new Peer(null, null, null, devices.get(i), connection, false));
+                    CommunicationThread server = new CommunicationThread(receiveHandler,
+                            accepted[0],
+                            new Peer(null, null, null, devices.get(j), accepted[0], false));
+                    client.start();
+                    server.start();
+                    mLinks.get(j).add(client);
+                    mLinks.get(i).add(server);
+                }
+            }
+        } finally {
+            for (IAcceptor acceptor : acceptors)
+                acceptor.close();
+        }
+    }
+
+    /**
+     * Makes every node send frames on all its links for DURATION, then
+     * checks and prints the statistics of the run
+     */
+    private void run(String name) throws Exception {
+        final AtomicLong sent = new AtomicLong();
+        final long end = System.currentTimeMillis() + DURATION;
+        List<Thread> senders = new ArrayList<Thread>();
+        for (final List<CommunicationThread> node : mLinks) {
+            Thread sender = new Thread() {
+                @Override
+                public void run() {
+                    byte[] frame = new byte[FrameFormat.HEADER_LEN + PAYLOAD_LEN];
+                    int seq = 0;
+                    long next = System.nanoTime();
+                    while (System.currentTimeMillis() < end) {
+                        FrameFormat.writeHeader(frame, 0, 0, 0, PAYLOAD_LEN, seq++, now());
+                        for (int i = 0; i < node.size(); i++)
+                            node.get(i).sendData(frame, frame.length);
+                        sent.addAndGet(node.size());
+                        next += PERIOD * 1000000L;
+                        LockSupport.parkNanos(next - System.nanoTime());
+                    }
+                }
+            };
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders)
+            sender.join();
+
+        // Let the frames still on the way arrive
+        long drainEnd = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while (mReceived.get() < sent.get() && System.currentTimeMillis() < drainEnd)
+            Thread.sleep(10);
+
+        long queued = 0, written = 0, dropped = 0;
+        float throughput = 0, writeLatency = 0;
+        int links = 0;
+        for (List<CommunicationThread> node : mLinks) {
+            for (CommunicationThread link : node) {
+                SendQueue queue = link.getSendQueue();
+                queued += queue.getQueued();
+                written += queue.getSent();
+                dropped += queue.getDropped();
+                throughput += queue.getThroughput();
+                writeLatency += queue.getWriteLatency();
+                links++;
+            }
+        }
+        long p99 = percentile(0.99);
+        System.out.printf("%s, %d nodes, %d links: sent %d, received %d, latency p50 %d us," +
+                " p99 %d us, max %d us%n", name, NODES, links, sent.get(), mReceived.get(),
+                percentile(0.5), p99, percentile(1.0));
+        System.out.printf("  send queues: queued %d, sent %d, dropped %d, throughput %.0f kB/s," +
+                " write latency %.3f ms%n", queued, written, dropped, throughput / links / 1024,
+                writeLatency / links);
+
+        assertEquals(NODES * (NODES - 1), links);
+        assertEquals("Frames dropped by the send queues", 0, dropped);
+        assertEquals("Frames lost", sent.get(), mReceived.get());
+        assertTrue("p99 latency " + p99 + " us", p99 <= MAX_P99_LATENCY);
+    }
+
+    /**
+     * @return the latency below which a fraction of the frames arrived, in us
+     */
+    private long percentile(double fraction) {
+        synchronized (mLatencies) {
+            long total = 0;
+            for (long frames : mLatencies)
+                total += frames;
+            long frames = 0;
+            for (int i = 0; i < mLatencies.length; i++) {
+                frames += mLatencies[i];
+                if (frames > 0 && frames >= fraction * total)
+                    return (long)i * BUCKET_MICROS;
+            }
+            return -1;
+        }
+    }
+
+    private static int now() {
+        return (int)(System.nanoTime() / 1000) & 0x7FFFFFFF;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.motolky.Common;
+
+/**
+ * Checks which talkers the relay forwards and how it numbers their frames
+ */
+public class RelayTest {
+    private int mRelayTalkers;
+    private Relay mRelay;
+    private RecordingLink mFirst;
+    private RecordingLink mSecond;
+    private final byte[] mPacket = new byte[FrameFormat.HEADER_LEN + 20];
+
+    /**
+     * A link that records the origin and sequence number of what it sends
+     */
+    private static class RecordingLink implements ISendHandler {
+        final List<Integer> mOrigins = new ArrayList<Integer>();
+        final List<Integer> mSequences = new ArrayList<Integer>();
+
+        @Override
+        public void sendData(byte[] buffer, int bytes) {
+            mOrigins.add(FrameFormat.getOrigin(buffer, 0));
+            mSequences.add(FrameFormat.getSequence(buffer, 0));
+        }
+
+        @Override
+        public void sendData(byte[] buffer, int bytes, byte[] redundant, int redundantBytes) {
+            sendData(buffer, bytes);
+        }
+
+        @Override
+        public int selectLayer(int[] layerRates, int layers) {
+            return 0;
+        }
+
+        @Override
+        public int getQualityStep() {
+            return 0;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mRelayTalkers = Common.RELAY_TALKERS;
+        Common.RELAY_TALKERS = 2;
+        mRelay = new Relay();
+        mFirst = new RecordingLink();
+        mSecond = new RecordingLink();
+        mRelay.addLink(mFirst);
+        mRelay.addLink(mSecond);
+    }
+
+    @After
+    public void tearDown() {
+        Common.RELAY_TALKERS = mRelayTalkers;
+    }
+
+    /**
+     * Forwards a packet of a talker, coming from the first link
+     * @param level - the level of the packet, in -dB
+     */
+    private boolean forward(int origin, int sequence, int level, int flags) {
+        FrameFormat.writeHeader(mPacket, 0, 1, flags, mPacket.length - FrameFormat.HEADER_LEN,
+                sequence, sequence * 160);
+        FrameFormat.setOrigin(mPacket, 0, origin);
+        FrameFormat.setLevel(mPacket, 0, level);
+        return mRelay.forward(mPacket, 0, mPacket.length, mFirst);
+    }
+
+    @Test
+    public void loudestTalkersAreForwarded() {
+        assertTrue(forward(1, 0, 10, 0));
+        assertTrue(forward(2, 0, 20, 0));
+        // Two talkers are selected already and this one is quieter
+        assertFalse(forward(3, 0, 30, 0));
+        // Louder than the weakest selected talker by the margin: it replaces it
+        assertTrue(forward(4, 0, 5, 0));
+        assertFalse(forward(2, 1, 20, 0));
+        assertTrue(forward(1, 1, 10, 0));
+        // Louder than the weakest, but not by the margin
+        assertFalse(forward(5, 0, 9, 0));
+    }
+
+    @Test
+    public void comfortNoiseEndsTheSelection() {
+        assertTrue(forward(1, 0, 10, 0));
+        assertTrue(forward(2, 0, 20, 0));
+        assertFalse(forward(3, 0, 30, 0));
+        // The comfort noise is forwarded, and frees the place of the talker
+        assertTrue(forward(1, 1, FrameFormat.LEVEL_SILENT, FrameFormat.FLAG_COMFORT_NOISE));
+        assertTrue(forward(3, 1, 30, 0));
+        // A talker that is not selected does not forward its comfort noise
+        assertFalse(forward(5, 0, FrameFormat.LEVEL_SILENT, FrameFormat.FLAG_COMFORT_NOISE));
+    }
+
+    @Test
+    public void packetsAreNotSentBack() {
+        assertTrue(forward(1, 0, 10, 0));
+        assertEquals(0, mFirst.mOrigins.size());
+        assertEquals(1, mSecond.mOrigins.size());
+    }
+
+    @Test
+    public void forwardedFramesAreNumberedAgain() {
+        // The frames of the second talker are skipped while it is not selected
+        assertTrue(forward(1, 100, 10, 0));
+        assertTrue(forward(2, 500, 20, 0));
+        assertFalse(forward(3, 700, 30, 0));
+        assertTrue(forward(1, 101, 10, 0));
+        assertTrue(forward(1, 102, FrameFormat.LEVEL_SILENT, FrameFormat.FLAG_COMFORT_NOISE));
+        assertTrue(forward(3, 703, 30, 0));
+        assertTrue(forward(3, 704, 30, 0));
+
+        int[] expected = { 0, 0, 1, 2, 0, 1 };
+        int[] origins = { 1, 2, 1, 1, 3, 3 };
+        assertEquals(expected.length, mSecond.mSequences.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(origins[i], (int)mSecond.mOrigins.get(i));
+            assertEquals(expected[i], (int)mSecond.mSequences.get(i));
+        }
+    }
+}
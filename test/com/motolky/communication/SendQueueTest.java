@@ -0,0 +1,53 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SendQueueTest {
+    @Test
+    public void shortWritesAreTimedTogether() {
+        SendQueue queue = new SendQueue(8, 64, true);
+        // 53 bytes every 20 us: 2650000 bytes per second
+        queue.sent(53, 20000);
+        assertEquals(0, queue.getThroughput(), 0);
+        for (int i = 1; i < 100; i++)
+            queue.sent(53, 20000);
+        assertEquals(2650000, queue.getThroughput(), 2650000 * 0.01);
+    }
+
+    @Test
+    public void longWritesAreTimedAlone() {
+        SendQueue queue = new SendQueue(8, 64, true);
+        // 50 bytes in 10 ms
+        queue.sent(50, 10000000);
+        assertEquals(5000, queue.getThroughput(), 1);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import com.motolky.Common;
+import com.motolky.communication.ISendHandler;
+
+/**
+ * Checks that the capture thread does not allocate in steady state. The
+ * reads go through RecordThread.capture(), which the thread loop runs for
+ * every read of the microphone: the sound processor encodes them with the
+ * Java codecs, packs the frames and the packets go to the send handlers.
+ */
+public class CaptureAllocationTest {
+    private static final int WARMUP_READS = 2000;
+    private static final int READS = 5000;
+    // What reading the allocation counter may allocate by itself
+    private static final long SLACK_BYTES = 1024;
+
+    /**
+     * A send handler that only counts the bytes, on the layer it was given
+     */
+    private static class CountingHandler implements ISendHandler {
+        private final int mLayer;
+        private long mBytes = 0;
+
+        CountingHandler(int layer) {
+            mLayer = layer;
+        }
+
+        @Override
+        public void sendData(byte[] buffer, int bytes) {
+            mBytes += bytes;
+        }
+
+        @Override
+        public void sendData(byte[] buffer, int bytes, byte[] redundant, int redundantBytes) {
+            mBytes += bytes + redundantBytes;
+        }
+
+        @Override
+        public int selectLayer(int[] layerRates, int layers) {
+            return Math.min(mLayer, layers - 1);
+        }
+
+        @Override
+        public int getQualityStep() {
+            return 0;
+        }
+    }
+
+    /**
+     * A microphone that talks for a second, then stays silent for a second,
+     * such that the comfort noise frames are sent too
+     */
+    private static class TalkingSource implements RecordThread.SampleSource {
+        private final short[] mSpeech;
+        private long mSamples = 0;
+
+        TalkingSource(int length) {
+            mSpeech = new short[length];
+            for (int i = 0; i < length; i++)
+                mSpeech[i] = (short)(8000 * Math.sin(2 * Math.PI * 440 * i / Common.SAMPLE_RATE)
+                        + 3000 * Math.sin(2 * Math.PI * 1234 * i / Common.SAMPLE_RATE));
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            boolean talking = (mSamples / Common.SAMPLE_RATE) % 2 == 0;
+            for (int i = 0; i < length; i++)
+                buffer[offset + i] = talking ? mSpeech[i % mSpeech.length] : 0;
+            mSamples += length;
+            return length;
+        }
+    }
+
+    @Test
+    public void captureDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assertTrue("This VM cannot count the allocations of a thread",
+                bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean)bean;
+        assertTrue("This VM cannot count the allocations of a thread",
+                counter.isThreadAllocatedMemorySupported());
+        counter.setThreadAllocatedMemoryEnabled(true);
+
+        SoundProcessor processor = new SoundProcessor(Common.FRAMES_PER_READ);
+        RecordThread recordThread = new RecordThread(processor);
+        CountingHandler best = new CountingHandler(0);
+        CountingHandler lowest = new CountingHandler(processor.getLayers() - 1);
+        recordThread.addSendHandler(best);
+        recordThread.addSendHandler(lowest);
+        TalkingSource source = new TalkingSource(
+                Common.FRAMES_PER_READ * processor.getFrameSize());
+
+        for (int i = 0; i < WARMUP_READS; i++)
+            recordThread.capture(source);
+
+        long threadId = Thread.currentThread().getId();
+        long before = counter.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < READS; i++)
+            recordThread.capture(source);
+        long allocated = counter.getThreadAllocatedBytes(threadId) - before;
+
+        processor.exit();
+        assertTrue("Nothing was sent", best.mBytes > 0 && lowest.mBytes > 0);
+        assertTrue("The capture thread allocated " + allocated + " bytes in " + READS + " reads",
+                allocated <= SLACK_BYTES);
+    }
+}
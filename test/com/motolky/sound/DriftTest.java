@@ -0,0 +1,182 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Feeds the drift estimator and the resampler with streams recorded by a
+ * clock 200 ppm faster and 200 ppm slower than the local one.
+ */
+public class DriftTest {
+    private static final int RATE = 8000;
+    private static final int FRAME = 160;
+    // 20 ms frames for 60 seconds
+    private static final int FRAMES = 3000;
+    // How far the estimate may be from the true drift, in ppm
+    private static final int TOLERANCE_PPM = 20;
+    // The largest network delay of a frame, in local samples
+    private static final int MAX_DELAY = RATE * 40 / 1000;
+
+    /**
+     * Feeds the estimator with frames of a peer whose clock runs ppm parts
+     * per million faster than the local one, delayed by a random jitter
+     * @param pause - local samples added at the middle of the stream, as if
+     * the playback paused
+     */
+    private static DriftEstimator feed(int ppm, long pause) {
+        DriftEstimator estimator = new DriftEstimator(RATE);
+        Random random = new Random(ppm);
+        double remotePerLocal = 1 + ppm / 1e6;
+        for (int i = 0; i < FRAMES; i++) {
+            long sent = (long)i * FRAME;
+            int timestamp = (int)Math.round(sent * remotePerLocal);
+            long arrival = sent + random.nextInt(MAX_DELAY);
+            if (i >= FRAMES / 2)
+                arrival += pause;
+            estimator.update(timestamp, RATE, arrival);
+        }
+        return estimator;
+    }
+
+    @Test
+    public void fasterPeerIsFollowed() {
+        DriftEstimator estimator = feed(200, 0);
+        assertEquals(-200, estimator.getDriftPpm(), TOLERANCE_PPM);
+        // The peer records more samples than are played: more are consumed
+        assertTrue(estimator.getRatio() > 1);
+        assertEquals(0, estimator.getJumps());
+    }
+
+    @Test
+    public void slowerPeerIsFollowed() {
+        DriftEstimator estimator = feed(-200, 0);
+        assertEquals(200, estimator.getDriftPpm(), TOLERANCE_PPM);
+        assertTrue(estimator.getRatio() < 1);
+        assertEquals(0, estimator.getJumps());
+    }
+
+    @Test
+    public void jumpKeepsTheDrift() {
+        DriftEstimator estimator = feed(-200, RATE / 2);
+        assertEquals(1, estimator.getJumps());
+        assertEquals(200, estimator.getDriftPpm(), TOLERANCE_PPM);
+    }
+
+    @Test
+    public void driftIsClamped() {
+        assertEquals(-1000, feed(5000, 0).getDriftPpm());
+        assertEquals(1000, feed(-5000, 0).getDriftPpm());
+    }
+
+    /**
+     * A source of endless frames of a ramp, which counts the samples read
+     */
+    private static class CountingSource implements Resampler.Source {
+        long mRead = 0;
+
+        @Override
+        public int read(short[] out, int offset) {
+            for (int i = 0; i < FRAME; i++)
+                out[offset + i] = (short)((mRead + i) % 1000);
+            mRead += FRAME;
+            return FRAME;
+        }
+    }
+
+    private static void checkResampledLength(int ppm) {
+        DriftEstimator estimator = feed(ppm, 0);
+        Resampler resampler = new Resampler(FRAME);
+        resampler.setRatio(estimator.getRatio());
+        CountingSource source = new CountingSource();
+        short[] out = new short[FRAME];
+        int frames = 50000;
+        for (int i = 0; i < frames; i++)
+            assertEquals(FRAME, resampler.process(out, FRAME, source));
+
+        // The input consumed follows the ratio, give or take the two frames
+        // the resampler buffers
+        double expected = (double)frames * FRAME * estimator.getRatio();
+        assertEquals(expected, source.mRead, 2 * FRAME + 2);
+        double fitted = (double)frames * FRAME * (1 + ppm / 1e6);
+        assertEquals(fitted, source.mRead, (double)frames * FRAME * TOLERANCE_PPM / 1e6 + 2 * FRAME);
+    }
+
+    @Test
+    public void resampledLengthTracksTheRatio() {
+        checkResampledLength(200);
+        checkResampledLength(-200);
+    }
+
+    /**
+     * A source of a slow ramp, which has nothing to give on every few reads
+     */
+    private static class GappySource implements Resampler.Source {
+        int mReads = 0;
+        int mSamples = 0;
+
+        @Override
+        public int read(short[] out, int offset) {
+            if (++mReads % 7 == 0)
+                return 0;
+            for (int i = 0; i < FRAME; i++)
+                out[offset + i] = (short)((mSamples + i) / 4);
+            mSamples += FRAME;
+            return FRAME;
+        }
+    }
+
+    @Test
+    public void nothingIsLostWhenTheSourceRunsOut() {
+        Resampler resampler = new Resampler(FRAME);
+        resampler.setRatio(1.0002);
+        GappySource source = new GappySource();
+        short[] out = new short[FRAME];
+        int produced = 0;
+        int last = -1;
+        for (int i = 0; i < 100; i++) {
+            if (resampler.process(out, FRAME, source) == 0)
+                continue;
+            // The ramp goes on where the previous frame left it
+            for (int j = 0; j < FRAME; j++) {
+                if (last >= 0)
+                    assertTrue("Jump from " + last + " to " + out[j] + " after " + produced +
+                            " samples", out[j] - last >= 0 && out[j] - last <= 1);
+                last = out[j];
+                produced++;
+            }
+        }
+        // The input consumed follows the output, give or take the frame buffered
+        assertEquals(produced * 1.0002, source.mSamples, 2 * FRAME + 2);
+    }
+}